@@ -1,10 +1,53 @@
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * AES-256-GCM encryption of image payloads.
+ *
+ * Everything written is in the chunked v2 format:
+ *   header: "IPSENC\0\2", chunk size (int), 8-byte random nonce prefix
+ *   chunks: ciphertext + 16-byte tag of each chunk-size piece of the
+ *           payload; the last one may be shorter (or empty)
+ * Chunk i is sealed under nonce = prefix || i with the header, i and a
+ * last-chunk flag as associated data, so chunks cannot be reordered, dropped,
+ * truncated or appended without failing authentication. Chunks are sealed and
+ * opened in parallel on a shared pool, with a bounded number in flight, so
+ * the streams keep memory flat and throughput scales with the cores.
+ *
+ * Decryption also reads the original single-shot v1 layout (12-byte IV,
+ * ciphertext, tag), recognised by the missing v2 magic.
+ */
 public class AESEncryption {
 
+    private static final byte[] MAGIC_V2 = {'I', 'P', 'S', 'E', 'N', 'C', 0, 2};
+    private static final int HEADER_BYTES = MAGIC_V2.length + 4 + 8;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 64 << 20;
+    private static final int TAG_BYTES = 16;
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    // chunks sealed / opened ahead of the stream position
+    private static final int WINDOW = 2 * THREADS + 1;
+    private static ExecutorService pool;
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<>();
+
     private SecretKey key;
     private final SecureRandom random = new SecureRandom();
 
@@ -24,35 +67,321 @@ public class AESEncryption {
         return bytesToHex(key.getEncoded());
     }
 
-    // Encrypt
+    // Encrypt to v2, sealing the chunks in parallel straight into the output array
     public byte[] encrypt(byte[] plain) throws Exception {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] header = newHeader(CHUNK_SIZE);
+        int chunks = Math.max(1, (plain.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        byte[] out = new byte[HEADER_BYTES + plain.length + chunks * TAG_BYTES];
+        System.arraycopy(header, 0, out, 0, HEADER_BYTES);
 
-        byte[] iv = new byte[12];
-        random.nextBytes(iv);
+        List<Future<Integer>> jobs = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int index = i, from = i * CHUNK_SIZE, len = Math.min(CHUNK_SIZE, plain.length - from);
+            jobs.add(pool().submit(() -> seal(header, index, index == chunks - 1,
+                    plain, from, len, out, HEADER_BYTES + from + index * TAG_BYTES)));
+        }
+        for (Future<Integer> f : jobs) await(f);
+        return out;
+    }
 
-        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
-        byte[] ct = cipher.doFinal(plain);
+    // Decrypt a v2 or v1 payload; chunks of v2 are opened in parallel
+    public byte[] decrypt(byte[] all) throws Exception {
+        if (!isV2(all)) {
+            if (all.length < 12 + TAG_BYTES) throw new EOFException("Encrypted data too short");
+            Cipher cipher = cipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, all, 0, 12));
+            return cipher.doFinal(all, 12, all.length - 12);
+        }
 
-        byte[] out = new byte[iv.length + ct.length];
-        System.arraycopy(iv, 0, out, 0, 12);
-        System.arraycopy(ct, 0, out, 12, ct.length);
+        byte[] header = Arrays.copyOf(all, HEADER_BYTES);
+        int chunkSize = chunkSize(header);
+        long body = all.length - HEADER_BYTES;
+        int stride = chunkSize + TAG_BYTES;
+        long full = body / stride, rest = body % stride;
+        long chunks = full + (rest > 0 ? 1 : 0);
+        if (chunks == 0 || (rest > 0 && rest < TAG_BYTES)) throw new IOException("Encrypted data truncated");
+        byte[] plain = new byte[(int) (body - chunks * TAG_BYTES)];
 
-        return out;
+        List<Future<Integer>> jobs = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int index = i, from = HEADER_BYTES + i * stride;
+            int len = Math.min(stride, all.length - from);
+            jobs.add(pool().submit(() -> open(header, index, index == chunks - 1,
+                    all, from, len, plain, index * chunkSize)));
+        }
+        for (Future<Integer> f : jobs) await(f);
+        return plain;
     }
 
-    // Decrypt
-    public byte[] decrypt(byte[] all) throws Exception {
-        byte[] iv = new byte[12];
-        System.arraycopy(all, 0, iv, 0, 12);
+    // Streaming encrypt: writes the v2 header to out and returns a stream that
+    // seals every full chunk in the background; closing it seals the last
+    // chunk, writes everything still pending and closes out
+    public OutputStream encryptingStream(OutputStream out) throws Exception {
+        byte[] header = newHeader(CHUNK_SIZE);
+        out.write(header);
+        return new ChunkedEncryptingStream(out, header);
+    }
 
-        byte[] ct = new byte[all.length - 12];
-        System.arraycopy(all, 12, ct, 0, ct.length);
+    // Streaming decrypt of v2 (chunks opened in parallel ahead of the reader)
+    // or v1. A wrong key or tampered data surfaces as an IOException: for v2
+    // at the first bad chunk, for v1 when the end is reached.
+    public InputStream decryptingStream(InputStream in) throws Exception {
+        PushbackInputStream pin = new PushbackInputStream(in, HEADER_BYTES);
+        byte[] header = new byte[HEADER_BYTES];
+        int n = readFully(pin, header, 0, MAGIC_V2.length);
+        if (n == MAGIC_V2.length && isV2(header)) {
+            if (readFully(pin, header, n, HEADER_BYTES - n) != HEADER_BYTES - n) throw new EOFException("Encrypted data too short");
+            return new ChunkedDecryptingStream(pin, header, chunkSize(header));
+        }
+        pin.unread(header, 0, n);
 
+        byte[] iv = new byte[12];
+        if (readFully(pin, iv, 0, iv.length) < iv.length) throw new EOFException("Encrypted data too short");
         Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
         cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        return new CipherInputStream(pin, cipher);
+    }
+
+    // ---------- v2 chunks ----------
+
+    private byte[] newHeader(int chunkSize) {
+        byte[] h = Arrays.copyOf(MAGIC_V2, HEADER_BYTES);
+        putInt(h, MAGIC_V2.length, chunkSize);
+        byte[] prefix = new byte[8];
+        random.nextBytes(prefix);
+        System.arraycopy(prefix, 0, h, MAGIC_V2.length + 4, 8);
+        return h;
+    }
+
+    private static boolean isV2(byte[] data) {
+        if (data.length < MAGIC_V2.length) return false;
+        for (int i = 0; i < MAGIC_V2.length; i++) if (data[i] != MAGIC_V2[i]) return false;
+        return true;
+    }
+
+    private static int chunkSize(byte[] header) throws IOException {
+        if (header.length < HEADER_BYTES) throw new EOFException("Encrypted data too short");
+        int size = ((header[8] & 0xFF) << 24) | ((header[9] & 0xFF) << 16) | ((header[10] & 0xFF) << 8) | (header[11] & 0xFF);
+        if (size <= 0 || size > MAX_CHUNK_SIZE) throw new IOException("Invalid chunk size " + size);
+        return size;
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    // initialises the calling thread's cipher for chunk index: nonce = prefix || index,
+    // associated data = header || index || last
+    private Cipher chunkCipher(int mode, byte[] header, int index, boolean last) throws GeneralSecurityException {
+        byte[] nonce = new byte[12];
+        System.arraycopy(header, MAGIC_V2.length + 4, nonce, 0, 8);
+        putInt(nonce, 8, index);
+        Cipher c = cipher();
+        c.init(mode, key, new GCMParameterSpec(128, nonce));
+        c.updateAAD(header);
+        byte[] aad = new byte[5];
+        putInt(aad, 0, index);
+        aad[4] = (byte) (last ? 1 : 0);
+        c.updateAAD(aad);
+        return c;
+    }
+
+    // seals len plaintext bytes into out (len + tag bytes); returns the bytes written
+    private int seal(byte[] header, int index, boolean last, byte[] in, int from, int len,
+                     byte[] out, int at) throws GeneralSecurityException {
+        return chunkCipher(Cipher.ENCRYPT_MODE, header, index, last).doFinal(in, from, len, out, at);
+    }
+
+    // opens one chunk (ciphertext + tag) into out; returns the plaintext bytes
+    private int open(byte[] header, int index, boolean last, byte[] in, int from, int len,
+                     byte[] out, int at) throws GeneralSecurityException {
+        return chunkCipher(Cipher.DECRYPT_MODE, header, index, last).doFinal(in, from, len, out, at);
+    }
+
+    private static Cipher cipher() throws GeneralSecurityException {
+        Cipher c = CIPHERS.get();
+        if (c == null) {
+            c = Cipher.getInstance("AES/GCM/NoPadding");
+            CIPHERS.set(c);
+        }
+        return c;
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            AtomicInteger n = new AtomicInteger(1);
+            pool = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread t = new Thread(r, "aes-" + n.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    private static <T> T await(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AEADBadTagException)
+                throw new IOException("Wrong key, or the encrypted data was modified", e.getCause());
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, off + n, len - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+
+    /** Buffers one chunk at a time; a full chunk is sealed only once more data shows it is not the last. */
+    private final class ChunkedEncryptingStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] header;
+        private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        private byte[] buf = new byte[CHUNK_SIZE];
+        private int len, index;
+        private boolean closed;
+
+        ChunkedEncryptingStream(OutputStream out, byte[] header) {
+            this.out = out;
+            this.header = header;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int n) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            while (n > 0) {
+                if (len == buf.length) submit(false);
+                int k = Math.min(n, buf.length - len);
+                System.arraycopy(b, off, buf, len, k);
+                len += k;
+                off += k;
+                n -= k;
+            }
+        }
+
+        private void submit(boolean last) throws IOException {
+            if (index == Integer.MAX_VALUE) throw new IOException("Payload too large");
+            byte[] chunk = buf;
+            int n = len, i = index++;
+            inFlight.add(pool().submit(() -> {
+                byte[] sealed = new byte[n + TAG_BYTES];
+                seal(header, i, last, chunk, 0, n, sealed, 0);
+                return sealed;
+            }));
+            buf = last ? null : new byte[CHUNK_SIZE];
+            len = 0;
+            // write finished chunks in order; wait when the window is full
+            while (inFlight.size() >= WINDOW || (last && !inFlight.isEmpty())) out.write(await(inFlight.poll()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                submit(true);
+            } finally {
+                for (Future<byte[]> f : inFlight) f.cancel(true);
+                out.close();
+            }
+        }
+    }
+
+    /** Reads chunks ahead and opens them in parallel; a chunk is the last one when no data follows it. */
+    private final class ChunkedDecryptingStream extends InputStream {
+        private final InputStream in;
+        private final byte[] header;
+        private final int chunkSize;
+        private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        // raw chunk read but not yet submitted: whether it is the last needs the next read
+        private byte[] pending;
+        private boolean sawLast;
+        private int index;
+        private byte[] cur = new byte[0];
+        private int pos;
+
+        ChunkedDecryptingStream(InputStream in, byte[] header, int chunkSize) throws IOException {
+            this.in = in;
+            this.header = header;
+            this.chunkSize = chunkSize;
+            pending = readChunk();
+            if (pending == null) throw new EOFException("Encrypted data truncated");
+        }
+
+        // next chunkSize + tag bytes, fewer at the end of the data, null at the end
+        private byte[] readChunk() throws IOException {
+            byte[] raw = new byte[chunkSize + TAG_BYTES];
+            int n = readFully(in, raw, 0, raw.length);
+            return n == 0 ? null : n == raw.length ? raw : Arrays.copyOf(raw, n);
+        }
+
+        private void fill() throws IOException {
+            while (!sawLast && inFlight.size() < WINDOW) {
+                byte[] raw = pending;
+                if (raw.length < TAG_BYTES) throw new IOException("Encrypted data truncated");
+                byte[] next = raw.length == chunkSize + TAG_BYTES ? readChunk() : null;
+                boolean last = next == null;
+                int i = index++;
+                inFlight.add(pool().submit(() -> {
+                    byte[] plain = new byte[raw.length - TAG_BYTES];
+                    open(header, i, last, raw, 0, raw.length, plain, 0);
+                    return plain;
+                }));
+                pending = next;
+                sawLast = last;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int n) throws IOException {
+            if (n == 0) return 0;
+            while (pos == cur.length) {
+                fill();
+                if (inFlight.isEmpty()) return -1;
+                cur = await(inFlight.poll());
+                pos = 0;
+            }
+            int k = Math.min(n, cur.length - pos);
+            System.arraycopy(cur, pos, b, off, k);
+            pos += k;
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return cur.length - pos;
+        }
 
-        return cipher.doFinal(ct);
+        @Override
+        public void close() throws IOException {
+            for (Future<byte[]> f : inFlight) f.cancel(true);
+            inFlight.clear();
+            in.close();
+        }
     }
 
     // Utility HEX
@@ -0,0 +1,526 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * BatchProcessor
+ * ----------------------------
+ * Headless command-line mode: runs an ordered list of operations over every
+ * image of a directory (or glob) and writes the results to an output directory.
+ *
+ * Decode, process and encode run as three stages connected by bounded queues,
+ * each with its own worker threads, so file I/O overlaps with processing.
+ * Throughput and per-stage timings are printed at the end.
+ *
+ * Every output is named after its input without the extension; inputs that
+ * share that name (a.png and a.jpg) keep their extension in it (a_png.png,
+ * a_jpg.png), and two inputs that would still write the same file (the same
+ * name in two directories of a glob) stop the run before anything is written.
+ *
+ * With --tiled, images are processed one at a time out of core instead: each
+ * is decoded in strips into a TiledImageStore, the operations stream over it
+ * tile by tile, and the PNG is encoded from the store, so images far larger
+ * than the heap go through.
+ */
+public class BatchProcessor {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java Main --input <dir|glob> --output <dir> --op <operation> [--op <operation> ...]",
+            "                 [--threads N] [--io-threads N] [--queue N] [--tiled] [--key-file <file>]",
+            "",
+            "Operations (applied in order):",
+            "  enhance:<contrast>,<brightness>   e.g. enhance:1.2,10",
+            "  sharpen:<strength>                e.g. sharpen:1.5",
+            "  blur:<radius>                     e.g. blur:4",
+            "  equalize[:channel]                luminance (default) or per-channel",
+            "  sobel",
+            "  canny[:<low>,<high>]              automatic thresholds when omitted",
+            "  compress:<quality>                JPEG output, quality 0.01-1 (must be last)",
+            "  compress:<size>                   JPEG output at the highest quality within a size, e.g. compress:200k",
+            "  encrypt                           AES-GCM .enc output (must be last); needs --key-file",
+            "",
+            "--key-file appends the \"file,key\" line of every encrypted image to a file outside",
+            "the output directory, created readable by the owner only; keep it apart from the .enc files.",
+            "",
+            "--tiled processes images larger than the heap through memory-mapped tiles;",
+            "it supports enhance, sharpen, blur and sobel, with PNG output.");
+
+    private static final Set<String> TILED_OPS = new HashSet<>(Arrays.asList("enhance", "sharpen", "blur", "sobel"));
+    // rows decoded at a time by --tiled
+    private static final long TILED_STRIP_BYTES = 64L << 20;
+
+    private static final Set<String> EXTENSIONS = new HashSet<>(Arrays.asList("png", "jpg", "jpeg", "bmp", "gif"));
+
+    /** One parsed --op argument. */
+    static final class Op {
+        final String name;
+        final String[] args;
+
+        Op(String spec) {
+            int c = spec.indexOf(':');
+            name = (c < 0 ? spec : spec.substring(0, c)).trim().toLowerCase();
+            args = c < 0 ? new String[0] : spec.substring(c + 1).split(",");
+        }
+
+        float f(int i, float def) {
+            return i < args.length && !args[i].isBlank() ? Float.parseFloat(args[i].trim()) : def;
+        }
+
+        /** Argument i as a byte count with a k / m suffix (e.g. "200k"), or -1 if it has no suffix. */
+        long bytes(int i) {
+            String s = i < args.length ? args[i].trim().toLowerCase() : "";
+            long unit = s.endsWith("k") ? 1024 : s.endsWith("m") ? 1024 * 1024 : -1;
+            if (unit < 0) return -1;
+            return (long) (Double.parseDouble(s.substring(0, s.length() - 1)) * unit);
+        }
+
+        BufferedImage apply(BufferedImage img) {
+            switch (name) {
+                case "enhance":  return ImageEnhancer.enhance(img, f(0, 1f), (int) f(1, 0f));
+                case "sharpen":  return ImageSharpener.sharpen(img, f(0, 1f));
+                case "blur":     return ImageBlurrer.blurRadius(img, (int) f(0, 1f));
+                case "equalize":
+                    HistogramProcessor.Mode m = args.length > 0 && args[0].trim().startsWith("chan")
+                            ? HistogramProcessor.Mode.PER_CHANNEL : HistogramProcessor.Mode.LUMINANCE;
+                    return HistogramProcessor.equalize(img, m, null);
+                case "sobel":    return EdgeDetector.sobel(img);
+                case "canny":    return EdgeDetector.canny(img, 1.4, f(0, -1f), f(1, -1f));
+                default:         return img; // compress / encrypt are applied when encoding
+            }
+        }
+
+        /** The same operation streamed over a tile store, into a new store. */
+        TiledImageStore apply(TiledImageStore img) throws Exception {
+            switch (name) {
+                case "enhance": return img.enhance(f(0, 1f), (int) f(1, 0f));
+                case "sharpen": return img.sharpen(f(0, 1f));
+                case "blur":    return img.blur((int) f(0, 1f));
+                case "sobel":   return img.sobel();
+                default: throw new IllegalArgumentException(name + " cannot run on tiles");
+            }
+        }
+    }
+
+    /** An image travelling through the pipeline. */
+    private static final class Item {
+        final File source;
+        BufferedImage image;
+
+        Item(File source, BufferedImage image) {
+            this.source = source;
+            this.image = image;
+        }
+    }
+
+    private static final Item END = new Item(null, null);
+
+    private final List<Op> ops;
+    private final Op output;          // trailing compress / encrypt, or null for PNG
+    private final File outDir;
+    private final File keyFile;       // where encrypt appends its keys
+    private final Map<File, String> names;   // input -> output name without extension
+    private final int workers, ioThreads, queueSize;
+    private final boolean tiled;
+
+    private final LongAdder decodeNanos = new LongAdder(), processNanos = new LongAdder(), encodeNanos = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder(), bytesOut = new LongAdder();
+    private final AtomicInteger done = new AtomicInteger(), failed = new AtomicInteger();
+    private PrintWriter keyLog;
+
+    private BatchProcessor(List<Op> ops, File outDir, File keyFile, Map<File, String> names,
+                           int workers, int ioThreads, int queueSize, boolean tiled) {
+        Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+        boolean terminal = last != null && (last.name.equals("compress") || last.name.equals("encrypt"));
+        this.output = terminal ? last : null;
+        this.ops = terminal ? ops.subList(0, ops.size() - 1) : ops;
+        this.outDir = outDir;
+        this.keyFile = keyFile;
+        this.names = names;
+        this.workers = workers;
+        this.ioThreads = ioThreads;
+        this.queueSize = queueSize;
+        this.tiled = tiled;
+    }
+
+    /**
+     * Entry point for the command line; returns the process exit code.
+     */
+    public static int run(String[] args) {
+        String input = null, output = null, keys = null;
+        List<Op> ops = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = cores, io = Math.max(1, Math.min(4, cores / 2)), queue = 2 * cores;
+        boolean tiled = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                switch (a) {
+                    case "--input":  case "-i": input = args[++i]; break;
+                    case "--output": case "-o": output = args[++i]; break;
+                    case "--op":                ops.add(new Op(args[++i])); break;
+                    case "--threads":           threads = Integer.parseInt(args[++i]); break;
+                    case "--io-threads":        io = Integer.parseInt(args[++i]); break;
+                    case "--queue":             queue = Integer.parseInt(args[++i]); break;
+                    case "--tiled":             tiled = true; break;
+                    case "--key-file":          keys = args[++i]; break;
+                    case "--help": case "-h":   System.out.println(USAGE); return 0;
+                    default: throw new IllegalArgumentException("Unknown argument: " + a);
+                }
+            }
+            if (input == null || output == null || ops.isEmpty()) throw new IllegalArgumentException("--input, --output and at least one --op are required");
+            Set<String> known = new HashSet<>(Arrays.asList("enhance", "sharpen", "blur", "equalize", "sobel", "canny", "compress", "encrypt"));
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                if (!known.contains(op.name)) throw new IllegalArgumentException("Unknown operation: " + op.name);
+                if ((op.name.equals("compress") || op.name.equals("encrypt")) && i != ops.size() - 1)
+                    throw new IllegalArgumentException(op.name + " must be the last operation");
+                // a malformed size or quality fails here rather than once per image
+                if (op.name.equals("compress") && op.bytes(0) < 0) op.f(0, 0.8f);
+                if (tiled && !TILED_OPS.contains(op.name))
+                    throw new IllegalArgumentException(op.name + " is not supported with --tiled");
+                if (op.name.equals("encrypt") && keys == null)
+                    throw new IllegalArgumentException("encrypt requires --key-file");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        try {
+            List<File> files = listInputs(input);
+            if (files.isEmpty()) {
+                System.err.println("No images found for " + input);
+                return 1;
+            }
+            Map<File, String> names;
+            try {
+                names = outputNames(files);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return 1;
+            }
+            File outDir = new File(output);
+            Files.createDirectories(outDir.toPath());
+            File keyFile = keys == null ? null : new File(keys);
+            if (keyFile != null && keyFile.getCanonicalFile().toPath().startsWith(outDir.getCanonicalFile().toPath())) {
+                // whoever receives the outputs must not receive their keys with them
+                System.err.println("--key-file must not be inside the output directory");
+                return 2;
+            }
+
+            BatchProcessor bp;
+            if (tiled) {
+                // one image at a time; each filter parallelizes its tiles
+                bp = new BatchProcessor(ops, outDir, keyFile, names, 1, 1, 1, true);
+                bp.processTiled(files);
+            } else {
+                // images are processed concurrently, so each filter runs single-threaded
+                TileScheduler.setParallelism(1);
+                bp = new BatchProcessor(ops, outDir, keyFile, names, Math.max(1, threads), Math.max(1, io), Math.max(1, queue), false);
+                bp.process(files);
+            }
+            return bp.failed.get() == 0 ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /** A directory (its image files) or a glob such as "scans/**.png". */
+    static List<File> listInputs(String input) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (!input.matches(".*[*?\\[{].*")) {
+            File dir = new File(input);
+            if (dir.isFile()) return Collections.singletonList(dir);
+            File[] list = dir.listFiles();
+            if (list == null) throw new IOException("Not a directory: " + input);
+            for (File f : list) if (f.isFile() && isImage(f)) files.add(f);
+        } else {
+            // walk from the longest directory prefix without glob characters
+            String norm = input.replace('\\', '/');
+            int cut = norm.lastIndexOf('/', norm.replaceAll("[*?\\[{].*", "").length());
+            Path root = Paths.get(cut < 0 ? "." : norm.substring(0, Math.max(cut, 1)));
+            PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + (cut < 0 ? norm : input));
+            try (Stream<Path> s = Files.walk(root)) {
+                s.filter(Files::isRegularFile)
+                 .filter(p -> m.matches(cut < 0 ? root.relativize(p) : p))
+                 .forEach(p -> files.add(p.toFile()));
+            }
+        }
+        files.sort(Comparator.comparing(File::getPath));
+        return files;
+    }
+
+    /**
+     * Output name (without extension) of every input, see the class comment.
+     *
+     * @throws IllegalArgumentException if two inputs would write the same file
+     */
+    static Map<File, String> outputNames(List<File> files) {
+        // compared ignoring case, as on case-insensitive file systems
+        Map<String, Integer> shared = new HashMap<>();
+        for (File f : files) shared.merge(stem(f).toLowerCase(Locale.ROOT), 1, Integer::sum);
+
+        Map<File, String> names = new HashMap<>();
+        Map<String, File> taken = new HashMap<>();
+        for (File f : files) {
+            String stem = stem(f), name = f.getName();
+            if (shared.get(stem.toLowerCase(Locale.ROOT)) > 1 && name.length() > stem.length()) {
+                name = stem + "_" + name.substring(stem.length() + 1);
+            } else {
+                name = stem;
+            }
+            File other = taken.putIfAbsent(name.toLowerCase(Locale.ROOT), f);
+            if (other != null) {
+                throw new IllegalArgumentException(other.getPath() + " and " + f.getPath()
+                        + " would both be written as " + name + ".*; rename one or process them separately");
+            }
+            names.put(f, name);
+        }
+        return names;
+    }
+
+    // file name without its extension
+    private static String stem(File f) {
+        return f.getName().replaceFirst("\\.[^.]+$", "");
+    }
+
+    private static boolean isImage(File f) {
+        String n = f.getName();
+        int dot = n.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(n.substring(dot + 1).toLowerCase());
+    }
+
+    private void process(List<File> files) throws Exception {
+        if (output != null && output.name.equals("encrypt")) keyLog = openKeyLog(keyFile);
+
+        BlockingQueue<File> pending = new LinkedBlockingQueue<>(files);
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Item> processed = new ArrayBlockingQueue<>(queueSize);
+
+        ExecutorService decoders = Executors.newFixedThreadPool(ioThreads, named("decode"));
+        ExecutorService processors = Executors.newFixedThreadPool(workers, named("process"));
+        ExecutorService encoders = Executors.newFixedThreadPool(ioThreads, named("encode"));
+        CountDownLatch decodeDone = new CountDownLatch(ioThreads);
+        CountDownLatch processDone = new CountDownLatch(workers);
+        CountDownLatch encodeDone = new CountDownLatch(ioThreads);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ioThreads; i++) decoders.execute(() -> {
+            try {
+                File f;
+                while ((f = pending.poll()) != null) {
+                    long t = System.nanoTime();
+                    try {
+                        BufferedImage img = ImageUtils.loadImage(f);
+                        if (img == null) throw new IOException("unsupported image format");
+                        bytesIn.add(f.length());
+                        decodeNanos.add(System.nanoTime() - t);
+                        decoded.put(new Item(f, img));
+                    } catch (IOException | RuntimeException e) {
+                        fail(f, "decode", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                decodeDone.countDown();
+            }
+        });
+
+        for (int i = 0; i < workers; i++) processors.execute(() -> {
+            try {
+                Item it;
+                while ((it = decoded.take()) != END) {
+                    long t = System.nanoTime();
+                    try {
+                        for (Op op : ops) it.image = op.apply(it.image);
+                        processNanos.add(System.nanoTime() - t);
+                        processed.put(it);
+                    } catch (RuntimeException e) {
+                        fail(it.source, "process", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                processDone.countDown();
+            }
+        });
+
+        for (int i = 0; i < ioThreads; i++) encoders.execute(() -> {
+            try {
+                Item it;
+                while ((it = processed.take()) != END) {
+                    long t = System.nanoTime();
+                    try {
+                        bytesOut.add(encode(it));
+                        encodeNanos.add(System.nanoTime() - t);
+                        done.incrementAndGet();
+                    } catch (Exception e) {
+                        fail(it.source, "encode", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                encodeDone.countDown();
+            }
+        });
+
+        // end-of-stream markers, one per consumer, once the upstream stage has drained
+        decodeDone.await();
+        for (int i = 0; i < workers; i++) decoded.put(END);
+        processDone.await();
+        for (int i = 0; i < ioThreads; i++) processed.put(END);
+        encodeDone.await();
+
+        decoders.shutdown();
+        processors.shutdown();
+        encoders.shutdown();
+        if (keyLog != null) keyLog.close();
+
+        report(files.size(), System.nanoTime() - start);
+    }
+
+    // --tiled: decode in strips into a tile store, stream every op over it, encode PNG from the store
+    private void processTiled(List<File> files) {
+        long start = System.nanoTime();
+        for (File f : files) {
+            TiledImageStore img = null;
+            String stage = "decode";
+            try {
+                long t = System.nanoTime();
+                img = TiledImageStore.read(f, TILED_STRIP_BYTES);
+                if (img == null) throw new IOException("unsupported image format");
+                bytesIn.add(f.length());
+                decodeNanos.add(System.nanoTime() - t);
+
+                stage = "process";
+                t = System.nanoTime();
+                for (Op op : ops) {
+                    TiledImageStore next = op.apply(img);
+                    img.close();
+                    img = next;
+                }
+                processNanos.add(System.nanoTime() - t);
+
+                stage = "encode";
+                t = System.nanoTime();
+                File out = new File(outDir, names.get(f) + ".png");
+                if (!ImageIO.write(img, "png", out)) throw new IOException("no PNG writer");
+                bytesOut.add(out.length());
+                encodeNanos.add(System.nanoTime() - t);
+                done.incrementAndGet();
+            } catch (Exception e) {
+                fail(f, stage, e);
+            } finally {
+                if (img != null) {
+                    try {
+                        img.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        report(files.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Opens the key file for appending, so keys of earlier runs are kept; a
+     * new file is created readable by its owner only (where the file system
+     * supports POSIX permissions) and starts with a header line.
+     */
+    private static PrintWriter openKeyLog(File file) throws IOException {
+        Path p = file.toPath();
+        boolean created = false;
+        if (!Files.exists(p)) {
+            if (p.getParent() != null) Files.createDirectories(p.getParent());
+            try {
+                Files.createFile(p, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createFile(p);
+            }
+            created = true;
+        }
+        PrintWriter log = new PrintWriter(Files.newBufferedWriter(p, StandardOpenOption.APPEND));
+        if (created) log.println("file,key");
+        return log;
+    }
+
+    // writes one result and returns the number of bytes written
+    private long encode(Item it) throws Exception {
+        String base = names.get(it.source);
+        BufferedImage img = it.image;
+
+        if (output == null) {
+            File out = new File(outDir, base + ".png");
+            ImageUtils.saveImage(img, out, "png", 1f);
+            return out.length();
+        }
+        if (output.name.equals("compress")) {
+            File out = new File(outDir, base + ".jpg");
+            long target = output.bytes(0);
+            if (target > 0) {
+                ImageCompressor.SizeResult r = ImageCompressor.saveToSize(img, out, target);
+                System.out.println(out.getName() + ": " + r);
+            } else {
+                ImageCompressor.saveCompressedJPG(img, out, Math.max(0.01f, Math.min(1f, output.f(0, 0.8f))));
+            }
+            return out.length();
+        }
+
+        // encrypt: PNG streamed through AES-GCM under a fresh key per image
+        File out = new File(outDir, base + ".enc");
+        AESEncryption aes = new AESEncryption();
+        ImageEncryptor.encryptAndSave(img, out, aes);
+        synchronized (keyLog) {
+            keyLog.println(out.getName() + "," + aes.getKeyHex());
+            // an .enc file on disk is useless without its key, so don't hold keys in the buffer
+            keyLog.flush();
+        }
+        return out.length();
+    }
+
+    private void fail(File f, String stage, Exception e) {
+        failed.incrementAndGet();
+        System.err.println("[" + stage + "] " + (f == null ? "?" : f.getPath()) + ": " + e.getMessage());
+    }
+
+    private void report(int total, long wallNanos) {
+        double secs = wallNanos / 1e9;
+        int ok = done.get();
+        double mbIn = bytesIn.sum() / 1e6, mbOut = bytesOut.sum() / 1e6;
+        System.out.printf("Processed %d of %d images (%d failed) in %.2f s%n", ok, total, failed.get(), secs);
+        System.out.printf("Throughput: %.2f images/s, %.2f MB/s read, %.2f MB/s written%n",
+                ok / secs, mbIn / secs, mbOut / secs);
+        System.out.printf("Stage time (summed over threads): decode %.2f s [%d], process %.2f s [%d], encode %.2f s [%d]%n",
+                decodeNanos.sum() / 1e9, ioThreads, processNanos.sum() / 1e9, workers, encodeNanos.sum() / 1e9, ioThreads);
+        if (ok > 0) {
+            System.out.printf("Per image: decode %.1f ms, process %.1f ms, encode %.1f ms%n",
+                    decodeNanos.sum() / 1e6 / ok, processNanos.sum() / 1e6 / ok, encodeNanos.sum() / 1e6 / ok);
+        }
+    }
+
+    private static ThreadFactory named(String stage) {
+        AtomicInteger n = new AtomicInteger(1);
+        return r -> {
+            Thread t = new Thread(r, "batch-" + stage + "-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DCT
+ * ----------------------------
+ * DCT-II engine over flat float buffers:
+ * - transform2D: separable full-image DCT, each 1D pass done in O(N log N)
+ *   with Makhoul's reordering on top of FFT.transformAny
+ * - blocks8x8: JPEG-style independent 8x8 block DCTs from a cached cosine table
+ *
+ * Coefficients use X[k] = sum x[j] * cos(pi * k * (2j + 1) / 2N) (no scaling).
+ * Rows and columns / block rows run in parallel through TileScheduler.
+ */
+public final class DCT {
+
+    // cos / sin of pi*k/(2N), per length N
+    private static final Map<Integer, double[][]> TWIDDLES = new ConcurrentHashMap<>();
+
+    // 8x8 basis: C8[u * 8 + x] = cos(pi * (2x + 1) * u / 16)
+    private static final double[] C8 = new double[64];
+    static {
+        for (int u = 0; u < 8; u++)
+            for (int x = 0; x < 8; x++) C8[u * 8 + x] = Math.cos(Math.PI * (2 * x + 1) * u / 16.0);
+    }
+
+    private static final int COLUMN_BLOCK = 16;
+
+    private DCT() {}
+
+    private static double[][] twiddles(int n) {
+        return TWIDDLES.computeIfAbsent(n, k -> {
+            double[] c = new double[k], s = new double[k];
+            for (int i = 0; i < k; i++) {
+                double a = -Math.PI * i / (2.0 * k);
+                c[i] = Math.cos(a);
+                s[i] = Math.sin(a);
+            }
+            return new double[][]{c, s};
+        });
+    }
+
+    /**
+     * In-place DCT-II of x[0..n). re and im are scratch buffers of length n.
+     */
+    public static void forward(double[] x, int n, double[] re, double[] im) {
+        // even samples forwards, odd samples backwards
+        for (int k = 0; 2 * k < n; k++) re[k] = x[2 * k];
+        for (int k = 0; 2 * k + 1 < n; k++) re[n - 1 - k] = x[2 * k + 1];
+        Arrays.fill(im, 0, n, 0);
+        FFT.transformAny(re, im, n);
+        double[][] t = twiddles(n);
+        double[] c = t[0], s = t[1];
+        for (int k = 0; k < n; k++) x[k] = re[k] * c[k] - im[k] * s[k];
+    }
+
+    /**
+     * In-place DCT-II of two sequences at once: they go through a single
+     * complex FFT as its real and imaginary parts and are separated afterwards.
+     */
+    public static void forwardPair(double[] x1, double[] x2, int n, double[] re, double[] im) {
+        for (int k = 0; 2 * k < n; k++) { re[k] = x1[2 * k]; im[k] = x2[2 * k]; }
+        for (int k = 0; 2 * k + 1 < n; k++) { re[n - 1 - k] = x1[2 * k + 1]; im[n - 1 - k] = x2[2 * k + 1]; }
+        FFT.transformAny(re, im, n);
+        double[][] t = twiddles(n);
+        double[] c = t[0], s = t[1];
+        for (int k = 0; k < n; k++) {
+            int j = k == 0 ? 0 : n - k;
+            // A = (Z[k] + conj Z[n-k]) / 2,  B = (Z[k] - conj Z[n-k]) / 2i
+            double ar = (re[k] + re[j]) * 0.5, ai = (im[k] - im[j]) * 0.5;
+            double br = (im[k] + im[j]) * 0.5, bi = (re[j] - re[k]) * 0.5;
+            x1[k] = ar * c[k] - ai * s[k];
+            x2[k] = br * c[k] - bi * s[k];
+        }
+    }
+
+    /** In-place separable 2D DCT-II of a w x h row-major buffer. */
+    public static void transform2D(float[] data, int w, int h) {
+        // rows, two per FFT
+        int pairs = (h + 1) / 2;
+        TileScheduler.inStage(0, 0.5, () -> TileScheduler.forEachBand(pairs, 0, (p0, p1) -> {
+            double[] a = new double[w], b = new double[w], re = new double[w], im = new double[w];
+            for (int p = p0; p < p1; p++) {
+                int oa = 2 * p * w, ob = Math.min(2 * p + 1, h - 1) * w;
+                for (int i = 0; i < w; i++) { a[i] = data[oa + i]; b[i] = data[ob + i]; }
+                forwardPair(a, b, w, re, im);
+                for (int i = 0; i < w; i++) data[oa + i] = (float) a[i];
+                if (2 * p + 1 < h) for (int i = 0; i < w; i++) data[ob + i] = (float) b[i];
+            }
+        }));
+
+        // columns, gathered in blocks for locality, two per FFT
+        int blocks = (w + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+        TileScheduler.inStage(0.5, 1, () -> TileScheduler.forEachBand(blocks, 0, (b0, b1) -> {
+            double[][] col = new double[COLUMN_BLOCK][h];
+            double[] re = new double[h], im = new double[h];
+            for (int blk = b0; blk < b1; blk++) {
+                int x0 = blk * COLUMN_BLOCK, n = Math.min(COLUMN_BLOCK, w - x0);
+                for (int y = 0; y < h; y++) {
+                    int o = y * w + x0;
+                    for (int c = 0; c < n; c++) col[c][y] = data[o + c];
+                }
+                for (int c = 0; c + 1 < n; c += 2) forwardPair(col[c], col[c + 1], h, re, im);
+                if ((n & 1) != 0) {
+                    Arrays.fill(im, 0);
+                    forward(col[n - 1], h, re, im);
+                }
+                for (int y = 0; y < h; y++) {
+                    int o = y * w + x0;
+                    for (int c = 0; c < n; c++) data[o + c] = (float) col[c][y];
+                }
+            }
+        }));
+    }
+
+    /**
+     * Replaces every 8x8 block of a w x h buffer by its DCT-II coefficients,
+     * DC at the block's top-left. Partial blocks at the right/bottom edge are
+     * padded by repeating the last row/column.
+     */
+    public static void blocks8x8(float[] data, int w, int h) {
+        int blockRows = (h + 7) / 8;
+        TileScheduler.forEachBand(blockRows, 0, (r0, r1) -> {
+            double[] in = new double[64], tmp = new double[64];
+            for (int br = r0; br < r1; br++) {
+                int y0 = br * 8;
+                for (int x0 = 0; x0 < w; x0 += 8) {
+                    for (int y = 0; y < 8; y++) {
+                        int row = Math.min(y0 + y, h - 1) * w;
+                        for (int x = 0; x < 8; x++) in[y * 8 + x] = data[row + Math.min(x0 + x, w - 1)];
+                    }
+                    // rows: tmp[y][u] = sum_x in[y][x] * C8[u][x]
+                    for (int y = 0; y < 8; y++) {
+                        for (int u = 0; u < 8; u++) {
+                            double s = 0;
+                            for (int x = 0; x < 8; x++) s += in[y * 8 + x] * C8[u * 8 + x];
+                            tmp[y * 8 + u] = s;
+                        }
+                    }
+                    // columns: out[v][u] = sum_y tmp[y][u] * C8[v][y]
+                    for (int v = 0; v < 8 && y0 + v < h; v++) {
+                        int row = (y0 + v) * w;
+                        for (int u = 0; u < 8 && x0 + u < w; u++) {
+                            double s = 0;
+                            for (int y = 0; y < 8; y++) s += tmp[y * 8 + u] * C8[v * 8 + y];
+                            data[row + x0 + u] = (float) s;
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -1,74 +1,229 @@
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 /**
  * EdgeDetector
  * - sobel: standard Sobel magnitude
- * - cannyApprox: approximate Canny using Gaussian blur + Sobel + thresholding
+ * - canny: Gaussian + gradient + non-maximum suppression + hysteresis, streamed over rows
  */
 public class EdgeDetector {
 
+    private static final double DEFAULT_SIGMA = 1.4;
+    private static final int STRONG = 255, WEAK = 128;
+
     public static BufferedImage sobel(BufferedImage src) {
-        BufferedImage gray = toGray(src);
-        int w = gray.getWidth(), h = gray.getHeight();
-        BufferedImage out = new BufferedImage(w,h,BufferedImage.TYPE_BYTE_GRAY);
-
-        int[] gx = {-1,0,1, -2,0,2, -1,0,1};
-        int[] gy = {-1,-2,-1, 0,0,0, 1,2,1};
-
-        for (int y=1;y<h-1;y++) {
-            for (int x=1;x<w-1;x++) {
-                int sx=0, sy=0, k=0;
-                for (int j=-1;j<=1;j++) for (int i=-1;i<=1;i++){
-                    int v = gray.getRaster().getSample(x+i,y+j,0);
-                    sx += gx[k]*v; sy += gy[k]*v; k++;
+        int w = src.getWidth(), h = src.getHeight();
+        byte[] gray = PixelBuffer.toGray(src);
+        BufferedImage out = PixelBuffer.newGray(w, h);
+        sobel(gray, PixelBuffer.grayData(out), w, h);
+        return out;
+    }
+
+    /** Sobel magnitude of a flat gray buffer; border pixels of dst are left untouched. */
+    private static void sobel(byte[] g, byte[] dst, int w, int h) {
+        TileScheduler.forEachBand(1, h - 1, 1, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int up = (y - 1) * w, mid = y * w, dn = (y + 1) * w;
+                for (int x = 1; x < w - 1; x++) {
+                    int a = g[up + x - 1] & 0xFF, b = g[up + x] & 0xFF, c = g[up + x + 1] & 0xFF;
+                    int d = g[mid + x - 1] & 0xFF,                      f = g[mid + x + 1] & 0xFF;
+                    int k = g[dn + x - 1] & 0xFF, l = g[dn + x] & 0xFF, m = g[dn + x + 1] & 0xFF;
+                    int sx = (c + 2 * f + m) - (a + 2 * d + k);
+                    int sy = (k + 2 * l + m) - (a + 2 * b + c);
+                    int mag = (int) Math.min(255, Math.sqrt((double) sx * sx + (double) sy * sy));
+                    dst[mid + x] = (byte) mag;
                 }
-                int mag = (int)Math.min(255, Math.hypot(sx, sy));
-                out.getRaster().setSample(x,y,0,mag);
             }
+        });
+    }
+
+    /** Canny with sigma 1.4 and automatic (median-based) thresholds. */
+    public static BufferedImage canny(BufferedImage src) {
+        return canny(src, DEFAULT_SIGMA, -1, -1);
+    }
+
+    /**
+     * Canny edge detector, streamed over rows.
+     *
+     * Each input row goes through a horizontal Gaussian into a ring of 2r+1
+     * rows, then vertical Gaussian, gradient and non-maximum suppression each
+     * keep a ring of 3 rows, so besides the output only a few rows are live.
+     * Edge pixels are marked strong/weak in the output as NMS runs, and
+     * hysteresis then grows strong edges into connected weak pixels with an
+     * explicit stack.
+     *
+     * @param sigma Gaussian standard deviation (pixels)
+     * @param low   Low gradient threshold (Sobel units); negative for automatic
+     * @param high  High gradient threshold (Sobel units); negative for automatic
+     * @return TYPE_BYTE_GRAY image, 255 on edges and 0 elsewhere
+     */
+    public static BufferedImage canny(BufferedImage src, double sigma, double low, double high) {
+        if (src == null) throw new IllegalArgumentException("Image cannot be null");
+        if (low < 0 || high < 0) {
+            double[] t = TileScheduler.inStage(0, 0.15, () -> autoThresholds(src));
+            if (low < 0) low = t[0];
+            if (high < 0) high = t[1];
         }
+        if (low > high) { double t = low; low = high; high = t; }
+
+        PixelBuffer in = PixelBuffer.wrap(PixelBuffer.toSupported(src));
+        int w = in.width, h = in.height;
+        BufferedImage out = PixelBuffer.newGray(w, h);
+        byte[] o = PixelBuffer.grayData(out);
+
+        // 1D Gaussian
+        int r = Math.max(1, (int) Math.ceil(3 * sigma));
+        float[] k = new float[2 * r + 1];
+        float ksum = 0;
+        for (int i = -r; i <= r; i++) ksum += k[i + r] = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+        for (int i = 0; i < k.length; i++) k[i] /= ksum;
+
+        int ringH = 2 * r + 1;
+        float[][] blurX = new float[ringH][w];     // horizontally blurred input rows
+        float[][] smooth = new float[3][w];        // fully blurred rows
+        float[][] mag = new float[3][w];           // gradient magnitude rows
+        byte[][] dir = new byte[3][w];             // quantized gradient direction rows
+        int[] luma = new int[w];
+        int loaded = 0;
+        float lo = (float) low, hi = (float) high;
+        IntStack strong = new IntStack();
+
+        for (int y = 0; y < h + 2; y++) {
+            // the row loop is sequential, so cancellation and progress are checked here
+            if ((y & 15) == 0) {
+                TileScheduler.checkCancelled();
+                TileScheduler.progress(0.15 + 0.8 * y / (h + 2));
+            }
+
+            // vertical blur of row y
+            if (y < h) {
+                for (; loaded <= Math.min(y + r, h - 1); loaded++) {
+                    in.readLumaRow(loaded, luma);
+                    float[] dst = blurX[loaded % ringH];
+                    for (int x = 0; x < w; x++) {
+                        float s = 0;
+                        for (int i = -r; i <= r; i++) s += k[i + r] * luma[clamp(x + i, w)];
+                        dst[x] = s;
+                    }
+                }
+                float[] dst = smooth[y % 3];
+                Arrays.fill(dst, 0f);
+                for (int i = -r; i <= r; i++) {
+                    float[] src1 = blurX[clamp(y + i, h) % ringH];
+                    float kw = k[i + r];
+                    for (int x = 0; x < w; x++) dst[x] += kw * src1[x];
+                }
+            }
+
+            // gradient of row y-1
+            int gy = y - 1;
+            if (gy >= 0 && gy < h) {
+                float[] up = smooth[clamp(gy - 1, h) % 3], mid = smooth[gy % 3], dn = smooth[clamp(gy + 1, h) % 3];
+                float[] m = mag[gy % 3];
+                byte[] d = dir[gy % 3];
+                for (int x = 0; x < w; x++) {
+                    int xl = clamp(x - 1, w), xr = clamp(x + 1, w);
+                    float sx = (up[xr] + 2 * mid[xr] + dn[xr]) - (up[xl] + 2 * mid[xl] + dn[xl]);
+                    float sy = (dn[xl] + 2 * dn[x] + dn[xr]) - (up[xl] + 2 * up[x] + up[xr]);
+                    m[x] = (float) Math.sqrt(sx * sx + sy * sy);
+                    d[x] = direction(sx, sy);
+                }
+            }
+
+            // non-maximum suppression and double threshold of row y-2
+            int ny = y - 2;
+            if (ny >= 0 && ny < h) {
+                float[] up = ny > 0 ? mag[(ny - 1) % 3] : null;
+                float[] mid = mag[ny % 3];
+                float[] dn = ny < h - 1 ? mag[(ny + 1) % 3] : null;
+                byte[] d = dir[ny % 3];
+                int row = ny * w;
+                for (int x = 0; x < w; x++) {
+                    float m = mid[x];
+                    if (m < lo) continue;
+                    float a, b;
+                    switch (d[x]) {
+                        case 0:  a = at(mid, x - 1, w); b = at(mid, x + 1, w); break;
+                        case 1:  a = at(up, x - 1, w);  b = at(dn, x + 1, w);  break;
+                        case 2:  a = at(up, x, w);      b = at(dn, x, w);      break;
+                        default: a = at(up, x + 1, w);  b = at(dn, x - 1, w);  break;
+                    }
+                    // strict on one side so plateaus keep a single pixel
+                    if (m > a && m >= b) {
+                        if (m >= hi) {
+                            o[row + x] = (byte) STRONG;
+                            strong.push(row + x);
+                        } else {
+                            o[row + x] = (byte) WEAK;
+                        }
+                    }
+                }
+            }
+        }
+
+        hysteresis(o, w, h, strong);
         return out;
     }
 
-    public static BufferedImage cannyApprox(BufferedImage src) {
-        BufferedImage blurred = gaussianBlur(src, 1.4);
-        BufferedImage sob = sobel(blurred);
-        // simple thresholding and thinning (not full Canny)
-        int w = sob.getWidth(), h = sob.getHeight();
-        BufferedImage out = new BufferedImage(w,h,BufferedImage.TYPE_BYTE_GRAY);
-        int max = 0;
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++) max = Math.max(max, sob.getRaster().getSample(x,y,0));
-        int high = (int)(max * 0.3);
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++) {
-            int v = sob.getRaster().getSample(x,y,0);
-            int val = (v >= high) ? 255 : 0;
-            out.getRaster().setSample(x,y,0,val);
+    /** low/high = (1 -/+ 0.33) * median luminance. */
+    private static double[] autoThresholds(BufferedImage src) {
+        HistogramProcessor.Histogram hist = HistogramProcessor.compute(src);
+        long half = (hist.count + 1) / 2, acc = 0;
+        int median = 0;
+        while (median < 255 && (acc += hist.luma[median]) < half) median++;
+        return new double[]{ Math.max(0, 0.67 * median), Math.min(255, 1.33 * median) };
+    }
+
+    // promotes weak pixels 8-connected to strong ones, then clears the rest
+    private static void hysteresis(byte[] o, int w, int h, IntStack stack) {
+        while (stack.size > 0) {
+            int i = stack.pop();
+            int x = i % w, y = i / w;
+            for (int dy = -1; dy <= 1; dy++) {
+                int yy = y + dy;
+                if (yy < 0 || yy >= h) continue;
+                for (int dx = -1; dx <= 1; dx++) {
+                    int xx = x + dx;
+                    if (xx < 0 || xx >= w) continue;
+                    int j = yy * w + xx;
+                    if ((o[j] & 0xFF) == WEAK) {
+                        o[j] = (byte) STRONG;
+                        stack.push(j);
+                    }
+                }
+            }
         }
-        return out;
+        for (int i = 0; i < o.length; i++) if ((o[i] & 0xFF) == WEAK) o[i] = 0;
     }
 
-    private static BufferedImage gaussianBlur(BufferedImage src, double sigma) {
-        // small 5x5 Gaussian kernel approximation
-        float[] kernel = {
-                1, 4, 6, 4, 1,
-                4,16,24,16,4,
-                6,24,36,24,6,
-                4,16,24,16,4,
-                1, 4, 6, 4, 1
-        };
-        for (int i=0;i<kernel.length;i++) kernel[i] /= 256f;
-        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        BufferedImage gray = toGray(src);
-        java.awt.image.ConvolveOp op = new java.awt.image.ConvolveOp(new java.awt.image.Kernel(5,5,kernel), java.awt.image.ConvolveOp.EDGE_NO_OP, null);
-        op.filter(gray, out);
-        return out;
+    // 0: horizontal gradient, 1: down-right diagonal, 2: vertical, 3: down-left diagonal
+    private static byte direction(float gx, float gy) {
+        float ax = Math.abs(gx), ay = Math.abs(gy);
+        if (ay <= ax * 0.41421356f) return 0;
+        if (ax <= ay * 0.41421356f) return 2;
+        return (byte) ((gx > 0) == (gy > 0) ? 1 : 3);
+    }
+
+    private static float at(float[] row, int x, int w) {
+        return row == null || x < 0 || x >= w ? 0f : row[x];
+    }
+
+    private static int clamp(int i, int n) {
+        return i < 0 ? 0 : i >= n ? n - 1 : i;
     }
 
-    private static BufferedImage toGray(BufferedImage src) {
-        BufferedImage gray = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Graphics g = gray.getGraphics();
-        g.drawImage(src, 0, 0, null);
-        g.dispose();
-        return gray;
+    /** Growable int stack for the hysteresis flood fill. */
+    private static final class IntStack {
+        int[] data = new int[1024];
+        int size;
+
+        void push(int v) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = v;
+        }
+
+        int pop() {
+            return data[--size];
+        }
     }
 }
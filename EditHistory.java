@@ -0,0 +1,370 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * EditHistory
+ * ----------------------------
+ * Undo / redo for in-place image edits without keeping full copies:
+ * - record: splits before / after into 128x128 tiles and stores, for every
+ *   tile that changed, the XOR of the two deflated (XOR is its own inverse,
+ *   so one delta serves both undo and redo)
+ * - undo / redo: XOR the deltas back into the current image, in place
+ * - steps that change size or type (or use a layout PixelBuffer cannot wrap)
+ *   store deflated before / after snapshots instead
+ *
+ * Entries beyond the memory budget are spilled, oldest first, to a temp file
+ * and read back when needed. Not thread-safe; callers use it from one thread
+ * at a time.
+ */
+public class EditHistory {
+
+    private static final int TILE = 128;
+
+    /** Deflated bytes, held in memory or at an offset of the spill file. */
+    private static final class Blob {
+        byte[] data;
+        long fileOffset = -1;
+        final int length;
+
+        Blob(byte[] data) {
+            this.data = data;
+            this.length = data.length;
+        }
+    }
+
+    private static final class Entry {
+        final String label;
+        // delta entries: tiles (tx, ty) -> blob of XOR samples
+        final List<int[]> tiles = new ArrayList<>();
+        final List<Blob> blobs = new ArrayList<>();
+        // snapshot entries: blobs are [before, after] and these describe them
+        int[] beforeShape, afterShape;   // {width, height, stored type, original type}
+
+        Entry(String label) {
+            this.label = label;
+        }
+
+        boolean isSnapshot() {
+            return beforeShape != null;
+        }
+
+        long memoryBytes() {
+            long n = 0;
+            for (Blob b : blobs) if (b.data != null) n += b.length;
+            return n;
+        }
+    }
+
+    private final long memoryBudget;
+    private final Deque<Entry> undo = new ArrayDeque<>();
+    private final Deque<Entry> redo = new ArrayDeque<>();
+    private long memoryBytes;
+    private RandomAccessFile spill;
+    private File spillFile;
+
+    /** @param memoryBudget Bytes of compressed history kept in memory before spilling to disk */
+    public EditHistory(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Records the step before -> after. after is the image that will be
+     * current afterwards; neither image is retained. Clears the redo stack.
+     */
+    public void record(String label, BufferedImage before, BufferedImage after) throws IOException {
+        Entry e = new Entry(label);
+        PixelBuffer b = PixelBuffer.wrap(before), a = PixelBuffer.wrap(after);
+        if (b != null && a != null && before.getType() == after.getType() && before.getType() != BufferedImage.TYPE_CUSTOM
+                && b.width == a.width && b.height == a.height && b.pixelStride == a.pixelStride) {
+            recordDelta(e, b, a);
+        } else {
+            e.beforeShape = shape(before);
+            e.blobs.add(new Blob(snapshot(before)));
+            e.afterShape = shape(after);
+            e.blobs.add(new Blob(snapshot(after)));
+        }
+
+        for (Entry r : redo) memoryBytes -= r.memoryBytes();
+        redo.clear();
+        undo.push(e);
+        memoryBytes += e.memoryBytes();
+        enforceBudget();
+    }
+
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /** Label of the step undo would revert, or null. */
+    public String undoLabel() {
+        return undo.isEmpty() ? null : undo.peek().label;
+    }
+
+    public String redoLabel() {
+        return redo.isEmpty() ? null : redo.peek().label;
+    }
+
+    /**
+     * Reverts the last step. current must be the image produced by that step;
+     * it is modified in place and returned, unless the step changed size or
+     * type, in which case a new image is returned.
+     */
+    public BufferedImage undo(BufferedImage current) throws IOException {
+        Entry e = undo.pop();
+        BufferedImage img = e.isSnapshot() ? restore(e.blobs.get(0), e.beforeShape) : applyDelta(e, current);
+        redo.push(e);
+        return img;
+    }
+
+    /** Re-applies the last undone step; same contract as {@link #undo}. */
+    public BufferedImage redo(BufferedImage current) throws IOException {
+        Entry e = redo.pop();
+        BufferedImage img = e.isSnapshot() ? restore(e.blobs.get(1), e.afterShape) : applyDelta(e, current);
+        undo.push(e);
+        return img;
+    }
+
+    /** Forgets every step and deletes the spill file. */
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        memoryBytes = 0;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException ignore) {}
+            spillFile.delete();
+            spill = null;
+        }
+    }
+
+    /** Compressed bytes held in memory (spilled entries excluded). */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public int size() {
+        return undo.size() + redo.size();
+    }
+
+    // ---------- tile deltas ----------
+
+    private static void recordDelta(Entry e, PixelBuffer b, PixelBuffer a) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] xor = new byte[TILE * TILE * Math.max(4, b.pixelStride)];
+        try {
+            for (int ty = 0; ty < b.height; ty += TILE) {
+                for (int tx = 0; tx < b.width; tx += TILE) {
+                    int n = xorTile(b, a, tx, ty, xor);
+                    if (n < 0) continue;  // tile unchanged
+                    e.tiles.add(new int[]{tx, ty});
+                    e.blobs.add(new Blob(deflate(deflater, xor, n)));
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // XOR of the tile's samples as bytes; returns the byte count, or -1 if all zero
+    private static int xorTile(PixelBuffer b, PixelBuffer a, int tx, int ty, byte[] out) {
+        int x1 = Math.min(b.width, tx + TILE), y1 = Math.min(b.height, ty + TILE);
+        int n = 0, any = 0;
+        for (int y = ty; y < y1; y++) {
+            int ib = b.rowStart(y) + tx * b.pixelStride, ia = a.rowStart(y) + tx * a.pixelStride;
+            int len = (x1 - tx) * b.pixelStride;
+            if (b.ints != null) {
+                for (int i = 0; i < len; i++) {
+                    int v = b.ints[ib + i] ^ a.ints[ia + i];
+                    any |= v;
+                    out[n++] = (byte) (v >>> 24);
+                    out[n++] = (byte) (v >>> 16);
+                    out[n++] = (byte) (v >>> 8);
+                    out[n++] = (byte) v;
+                }
+            } else {
+                for (int i = 0; i < len; i++) {
+                    int v = b.bytes[ib + i] ^ a.bytes[ia + i];
+                    any |= v;
+                    out[n++] = (byte) v;
+                }
+            }
+        }
+        return any == 0 ? -1 : n;
+    }
+
+    private BufferedImage applyDelta(Entry e, BufferedImage current) throws IOException {
+        PixelBuffer p = PixelBuffer.wrap(current);
+        byte[] xor = new byte[TILE * TILE * Math.max(4, p.pixelStride)];
+        Inflater inflater = new Inflater();
+        try {
+            for (int t = 0; t < e.tiles.size(); t++) {
+                int tx = e.tiles.get(t)[0], ty = e.tiles.get(t)[1];
+                inflate(inflater, read(e.blobs.get(t)), xor);
+                int x1 = Math.min(p.width, tx + TILE), y1 = Math.min(p.height, ty + TILE);
+                int n = 0;
+                for (int y = ty; y < y1; y++) {
+                    int i0 = p.rowStart(y) + tx * p.pixelStride;
+                    int len = (x1 - tx) * p.pixelStride;
+                    if (p.ints != null) {
+                        for (int i = i0; i < i0 + len; i++, n += 4) {
+                            p.ints[i] ^= (xor[n] & 0xFF) << 24 | (xor[n + 1] & 0xFF) << 16
+                                    | (xor[n + 2] & 0xFF) << 8 | (xor[n + 3] & 0xFF);
+                        }
+                    } else {
+                        for (int i = i0; i < i0 + len; i++) p.bytes[i] ^= xor[n++];
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return current;
+    }
+
+    // ---------- snapshots ----------
+
+    private static int[] shape(BufferedImage img) {
+        int type = img.getType();
+        boolean direct = PixelBuffer.wrap(img) != null && type != BufferedImage.TYPE_CUSTOM;
+        return new int[]{img.getWidth(), img.getHeight(), direct ? type : BufferedImage.TYPE_INT_ARGB, type};
+    }
+
+    private static byte[] snapshot(BufferedImage img) {
+        int[] s = shape(img);
+        PixelBuffer p = PixelBuffer.wrap(s[2] == s[3] ? img : PixelBuffer.convert(img, s[2]));
+        int rowLen = p.width * p.pixelStride * (p.ints != null ? 4 : 1);
+        byte[] row = new byte[rowLen];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        try {
+            for (int y = 0; y < p.height; y++) {
+                int i0 = p.rowStart(y), n = 0;
+                if (p.ints != null) {
+                    for (int i = i0; i < i0 + p.width; i++) {
+                        int v = p.ints[i];
+                        row[n++] = (byte) (v >>> 24);
+                        row[n++] = (byte) (v >>> 16);
+                        row[n++] = (byte) (v >>> 8);
+                        row[n++] = (byte) v;
+                    }
+                } else {
+                    System.arraycopy(p.bytes, i0, row, 0, rowLen);
+                }
+                deflater.setInput(row, 0, rowLen);
+                while (!deflater.needsInput()) out.write(buf, 0, deflater.deflate(buf));
+            }
+            deflater.finish();
+            while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private BufferedImage restore(Blob blob, int[] s) throws IOException {
+        BufferedImage img = new BufferedImage(s[0], s[1], s[2]);
+        PixelBuffer p = PixelBuffer.wrap(img);
+        int rowLen = p.width * p.pixelStride * (p.ints != null ? 4 : 1);
+        byte[] row = new byte[rowLen];
+        Inflater inflater = new Inflater();
+        inflater.setInput(read(blob));
+        try {
+            for (int y = 0; y < p.height; y++) {
+                for (int n = 0; n < rowLen; ) n += inflateSome(inflater, row, n, rowLen - n);
+                int i0 = p.rowStart(y);
+                if (p.ints != null) {
+                    for (int i = i0, n = 0; i < i0 + p.width; i++, n += 4) {
+                        p.ints[i] = (row[n] & 0xFF) << 24 | (row[n + 1] & 0xFF) << 16
+                                | (row[n + 2] & 0xFF) << 8 | (row[n + 3] & 0xFF);
+                    }
+                } else {
+                    System.arraycopy(row, 0, p.bytes, i0, rowLen);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        // layouts PixelBuffer cannot hold directly were stored as ARGB
+        boolean convertBack = s[3] != s[2] && s[3] != BufferedImage.TYPE_CUSTOM;
+        return convertBack ? PixelBuffer.convert(img, s[3]) : img;
+    }
+
+    // ---------- compression / spilling ----------
+
+    private static byte[] deflate(Deflater deflater, byte[] data, int n) {
+        deflater.reset();
+        deflater.setInput(data, 0, n);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, n / 8));
+        byte[] buf = new byte[1 << 14];
+        while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+        return out.toByteArray();
+    }
+
+    private static void inflate(Inflater inflater, byte[] data, byte[] out) throws IOException {
+        inflater.reset();
+        inflater.setInput(data);
+        int n = 0;
+        while (!inflater.finished()) n += inflateSome(inflater, out, n, out.length - n);
+    }
+
+    private static int inflateSome(Inflater inflater, byte[] out, int off, int len) throws IOException {
+        try {
+            int n = inflater.inflate(out, off, len);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()) && !inflater.finished())
+                throw new IOException("Corrupt history data");
+            return n;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt history data", e);
+        }
+    }
+
+    private byte[] read(Blob blob) throws IOException {
+        if (blob.data != null) return blob.data;
+        byte[] data = new byte[blob.length];
+        spill.seek(blob.fileOffset);
+        spill.readFully(data);
+        return data;
+    }
+
+    /** Moves the oldest entries' blobs to the spill file until memory use is within budget. */
+    private void enforceBudget() throws IOException {
+        if (memoryBytes <= memoryBudget) return;
+        if (spill == null) {
+            spillFile = File.createTempFile("edit-history", ".bin");
+            spillFile.deleteOnExit();
+            spill = new RandomAccessFile(spillFile, "rw");
+        }
+        // oldest first: bottom of the undo stack, then the far end of redo
+        List<Entry> byAge = new ArrayList<>();
+        undo.descendingIterator().forEachRemaining(byAge::add);
+        redo.descendingIterator().forEachRemaining(byAge::add);
+        for (Entry e : byAge) {
+            if (memoryBytes <= memoryBudget) break;
+            for (Blob b : e.blobs) {
+                if (b.data == null) continue;
+                b.fileOffset = spill.length();
+                spill.seek(b.fileOffset);
+                spill.write(b.data);
+                memoryBytes -= b.length;
+                b.data = null;
+            }
+        }
+    }
+}
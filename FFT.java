@@ -0,0 +1,185 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FFT
+ * ----------------------------
+ * Iterative radix-2 complex FFT with cached twiddle and bit-reversal tables,
+ * plus a 2D transform over flat float buffers whose row and column passes run
+ * in parallel through TileScheduler.
+ *
+ * {@link #transform} and {@link #transform2D} need power-of-two sizes (callers
+ * zero-pad with {@link #nextPow2(int)}); {@link #transformAny} handles any
+ * length exactly through Bluestein's chirp-z algorithm.
+ */
+public final class FFT {
+
+    private static final Map<Integer, Plan> PLANS = new ConcurrentHashMap<>();
+    private static final Map<Integer, Chirp> CHIRPS = new ConcurrentHashMap<>();
+
+    // columns gathered together in the column pass, for cache locality
+    private static final int COLUMN_BLOCK = 16;
+
+    private FFT() {}
+
+    public static int nextPow2(int n) {
+        int p = 1;
+        while (p < n) p <<= 1;
+        return p;
+    }
+
+    /** Precomputed tables for one transform length. */
+    private static final class Plan {
+        final int n;
+        final double[] cos, sin;
+        final int[] rev;
+
+        Plan(int n) {
+            this.n = n;
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                double a = -2 * Math.PI * k / n;
+                cos[k] = Math.cos(a);
+                sin[k] = Math.sin(a);
+            }
+            rev = new int[n];
+            int bits = Integer.numberOfTrailingZeros(n);
+            for (int i = 0; i < n; i++) rev[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    private static Plan plan(int n) {
+        if (n <= 0 || (n & (n - 1)) != 0) throw new IllegalArgumentException("FFT size must be a power of two: " + n);
+        return PLANS.computeIfAbsent(n, Plan::new);
+    }
+
+    /** In-place forward transform of re/im (length n, a power of two). */
+    public static void transform(double[] re, double[] im, int n) {
+        transform(re, im, plan(n));
+    }
+
+    private static void transform(double[] re, double[] im, Plan p) {
+        int n = p.n;
+        int[] rev = p.rev;
+        for (int i = 0; i < n; i++) {
+            int j = rev[i];
+            if (j > i) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        double[] cos = p.cos, sin = p.sin;
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int a = i + k, b = a + half;
+                    double wr = cos[t], wi = sin[t];
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+
+    /** Bluestein tables for one (non power-of-two) length n. */
+    private static final class Chirp {
+        final int n, m;
+        final double[] wr, wi;   // w[k] = exp(-i*pi*k^2/n)
+        final double[] br, bi;   // FFT of the conjugate chirp, length m
+
+        Chirp(int n) {
+            this.n = n;
+            m = nextPow2(2 * n - 1);
+            wr = new double[n];
+            wi = new double[n];
+            for (int k = 0; k < n; k++) {
+                // k^2 mod 2n keeps the angle small and exact for large k
+                long k2 = ((long) k * k) % (2L * n);
+                double a = -Math.PI * k2 / n;
+                wr[k] = Math.cos(a);
+                wi[k] = Math.sin(a);
+            }
+            br = new double[m];
+            bi = new double[m];
+            br[0] = wr[0];
+            bi[0] = -wi[0];
+            for (int k = 1; k < n; k++) {
+                br[k] = br[m - k] = wr[k];
+                bi[k] = bi[m - k] = -wi[k];
+            }
+            transform(br, bi, plan(m));
+        }
+    }
+
+    /** In-place forward transform of re/im for any length n >= 1. */
+    public static void transformAny(double[] re, double[] im, int n) {
+        if ((n & (n - 1)) == 0) {
+            transform(re, im, plan(n));
+            return;
+        }
+        Chirp c = CHIRPS.computeIfAbsent(n, Chirp::new);
+        int m = c.m;
+        double[] ar = new double[m], ai = new double[m];
+        for (int k = 0; k < n; k++) {
+            ar[k] = re[k] * c.wr[k] - im[k] * c.wi[k];
+            ai[k] = re[k] * c.wi[k] + im[k] * c.wr[k];
+        }
+        Plan pm = plan(m);
+        transform(ar, ai, pm);
+        // pointwise product, conjugated so the forward FFT below acts as an inverse
+        for (int k = 0; k < m; k++) {
+            double r = ar[k] * c.br[k] - ai[k] * c.bi[k];
+            double i = ar[k] * c.bi[k] + ai[k] * c.br[k];
+            ar[k] = r;
+            ai[k] = -i;
+        }
+        transform(ar, ai, pm);
+        for (int k = 0; k < n; k++) {
+            double r = ar[k] / m, i = -ai[k] / m;
+            re[k] = r * c.wr[k] - i * c.wi[k];
+            im[k] = r * c.wi[k] + i * c.wr[k];
+        }
+    }
+
+    /**
+     * In-place 2D forward transform of a w x h row-major complex buffer
+     * (w and h powers of two). Rows, then columns, each pass in parallel.
+     */
+    public static void transform2D(float[] re, float[] im, int w, int h) {
+        Plan pw = plan(w), ph = plan(h);
+
+        TileScheduler.inStage(0, 0.5, () -> TileScheduler.forEachBand(h, 0, (y0, y1) -> {
+            double[] r = new double[w], i = new double[w];
+            for (int y = y0; y < y1; y++) {
+                int o = y * w;
+                for (int x = 0; x < w; x++) { r[x] = re[o + x]; i[x] = im[o + x]; }
+                transform(r, i, pw);
+                for (int x = 0; x < w; x++) { re[o + x] = (float) r[x]; im[o + x] = (float) i[x]; }
+            }
+        }));
+
+        int blocks = (w + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+        TileScheduler.inStage(0.5, 1, () -> TileScheduler.forEachBand(blocks, 0, (b0, b1) -> {
+            double[][] r = new double[COLUMN_BLOCK][h], i = new double[COLUMN_BLOCK][h];
+            for (int blk = b0; blk < b1; blk++) {
+                int x0 = blk * COLUMN_BLOCK, n = Math.min(COLUMN_BLOCK, w - x0);
+                for (int y = 0; y < h; y++) {
+                    int o = y * w + x0;
+                    for (int c = 0; c < n; c++) { r[c][y] = re[o + c]; i[c][y] = im[o + c]; }
+                }
+                for (int c = 0; c < n; c++) transform(r[c], i[c], ph);
+                for (int y = 0; y < h; y++) {
+                    int o = y * w + x0;
+                    for (int c = 0; c < n; c++) { re[o + c] = (float) r[c][y]; im[o + c] = (float) i[c][y]; }
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,263 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * GalleryView
+ * ----------------------------
+ * Virtualized thumbnail grid for large folders:
+ * - lays cells out arithmetically (no child component per file)
+ * - paints only the cells intersecting the clip, through one recycled
+ *   renderer on a CellRendererPane, like JList does
+ * - requests thumbnails lazily for the visible rows plus a small overscan and
+ *   drops queued requests for rows scrolled out of view
+ *
+ * Component count is constant whatever the number of files.
+ */
+public class GalleryView extends JComponent implements Scrollable {
+
+    private static final int CELL_W = 160, CELL_H = 120, GAP = 8;
+    private static final int OVERSCAN_ROWS = 2;
+
+    private final ThumbnailService thumbnails;
+    private final Consumer<File> onOpen;
+
+    private List<File> files = Collections.emptyList();
+    // thumbnail keys of files, computed once per listing when the cell is first requested
+    // (each costs file system calls, too many to compute up front for a large folder)
+    private String[] keys = new String[0];
+    // icons of cells in the requested range, so painting allocates nothing
+    private final Map<Integer, Icon> icons = new HashMap<>();
+    // files whose thumbnail was requested for the current visible range / that cannot be decoded
+    private final Set<File> requested = new HashSet<>();
+    private final Set<File> failed = new HashSet<>();
+    private int requestedFrom = -1, requestedTo = -1;
+
+    // the one renderer reused for every cell
+    private final CellRendererPane rendererPane = new CellRendererPane();
+    private final JPanel cell = new JPanel(new BorderLayout());
+    private final JLabel thumbLabel = new JLabel("", SwingConstants.CENTER);
+    private final JLabel nameLabel = new JLabel("", SwingConstants.CENTER);
+    private final Icon fileIcon = UIManager.getIcon("FileView.fileIcon");
+
+    /**
+     * @param thumbnails Source of thumbnails
+     * @param onOpen     Called on the EDT with the file of a clicked cell
+     */
+    public GalleryView(ThumbnailService thumbnails, Consumer<File> onOpen) {
+        this.thumbnails = thumbnails;
+        this.onOpen = onOpen;
+
+        cell.setOpaque(true);
+        cell.setBackground(Color.WHITE);
+        cell.setBorder(new EmptyBorder(6, 6, 6, 6));
+        nameLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        thumbLabel.setForeground(Color.GRAY);
+        cell.add(thumbLabel, BorderLayout.CENTER);
+        cell.add(nameLabel, BorderLayout.SOUTH);
+        add(rendererPane);
+
+        setOpaque(false);
+        ToolTipManager.sharedInstance().registerComponent(this);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int i = indexAt(e.getPoint());
+                if (i >= 0) onOpen.accept(files.get(i));
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                setCursor(indexAt(e.getPoint()) >= 0
+                        ? Cursor.getPredefinedCursor(Cursor.HAND_CURSOR) : Cursor.getDefaultCursor());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    /** Replaces the listed files; queued thumbnail loads for the old list are dropped. */
+    public void setFiles(List<File> files) {
+        this.files = new ArrayList<>(files);
+        keys = new String[this.files.size()];
+        thumbnails.cancelPending();
+        icons.clear();
+        requested.clear();
+        failed.clear();
+        requestedFrom = requestedTo = -1;
+        revalidate();
+        repaint();
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    private int columns() {
+        return Math.max(1, (getWidth() - GAP) / (CELL_W + GAP));
+    }
+
+    private int rows() {
+        int cols = columns();
+        return (files.size() + cols - 1) / cols;
+    }
+
+    private Rectangle cellBounds(int index) {
+        int cols = columns();
+        return new Rectangle(GAP + (index % cols) * (CELL_W + GAP), GAP + (index / cols) * (CELL_H + GAP), CELL_W, CELL_H);
+    }
+
+    private int indexAt(Point p) {
+        int cols = columns();
+        int col = (p.x - GAP) / (CELL_W + GAP), row = (p.y - GAP) / (CELL_H + GAP);
+        if (p.x < GAP || p.y < GAP || col >= cols) return -1;
+        Rectangle r = new Rectangle(GAP + col * (CELL_W + GAP), GAP + row * (CELL_H + GAP), CELL_W, CELL_H);
+        int i = row * cols + col;
+        return r.contains(p) && i < files.size() ? i : -1;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int w = getParent() instanceof JViewport ? getParent().getWidth() : 4 * (CELL_W + GAP) + GAP;
+        int cols = Math.max(1, (w - GAP) / (CELL_W + GAP));
+        int rows = (files.size() + cols - 1) / cols;
+        return new Dimension(w, GAP + rows * (CELL_H + GAP));
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        int i = indexAt(e.getPoint());
+        return i < 0 ? null : files.get(i).getName();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (files.isEmpty()) {
+            g.setColor(Color.GRAY);
+            g.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+            String msg = "No saved items";
+            g.drawString(msg, (getWidth() - g.getFontMetrics().stringWidth(msg)) / 2, 40);
+            return;
+        }
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        int cols = columns(), rowH = CELL_H + GAP;
+        int firstRow = Math.max(0, (clip.y - GAP) / rowH);
+        int lastRow = Math.min(rows() - 1, (clip.y + clip.height - GAP) / rowH);
+
+        requestVisible();
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = 0; col < cols; col++) {
+                int i = row * cols + col;
+                if (i >= files.size()) break;
+                Rectangle r = cellBounds(i);
+                if (!r.intersects(clip)) continue;
+                configure(i);
+                rendererPane.paintComponent(g, cell, this, r.x, r.y, r.width, r.height, true);
+            }
+        }
+    }
+
+    private void configure(int index) {
+        File f = files.get(index);
+        nameLabel.setText(f.getName());
+        thumbLabel.setIcon(null);
+        thumbLabel.setText(null);
+        if (f.getName().endsWith(".enc")) {
+            thumbLabel.setIcon(fileIcon);
+        } else if (failed.contains(f)) {
+            thumbLabel.setText("No preview");
+        } else {
+            Icon icon = icon(index);
+            if (icon != null) thumbLabel.setIcon(icon);
+            else thumbLabel.setText("Loading...");
+        }
+    }
+
+    // the cell's icon, created once from the memory-cached thumbnail; null while it loads
+    private Icon icon(int index) {
+        Icon icon = icons.get(index);
+        if (icon == null) {
+            BufferedImage img = thumbnails.getCached(key(index));
+            if (img != null) icons.put(index, icon = new ImageIcon(img));
+        }
+        return icon;
+    }
+
+    private String key(int index) {
+        if (keys[index] == null) keys[index] = ThumbnailService.key(files.get(index));
+        return keys[index];
+    }
+
+    /** Requests thumbnails for the visible rows plus overscan; stale queued loads are dropped on scroll. */
+    private void requestVisible() {
+        Rectangle view = getVisibleRect();
+        int cols = columns(), rowH = CELL_H + GAP;
+        int firstRow = Math.max(0, (view.y - GAP) / rowH - OVERSCAN_ROWS);
+        int lastRow = Math.min(rows() - 1, (view.y + view.height - GAP) / rowH + OVERSCAN_ROWS);
+        int from = firstRow * cols, to = Math.min(files.size(), (lastRow + 1) * cols);
+
+        if (from != requestedFrom || to != requestedTo) {
+            thumbnails.cancelPending();
+            requested.clear();
+            icons.keySet().removeIf(i -> i < from || i >= to);
+            requestedFrom = from;
+            requestedTo = to;
+        }
+
+        // bottom-up, so the LIFO thumbnail queue serves the top rows first
+        for (int i = to - 1; i >= from; i--) {
+            File f = files.get(i);
+            if (f.getName().endsWith(".enc") || failed.contains(f) || requested.contains(f)) continue;
+            if (icon(i) != null) continue;
+            requested.add(f);
+            List<File> list = files;
+            int index = i;
+            thumbnails.request(f, key(i), img -> {
+                if (list != files) return;
+                if (img == null) failed.add(f);
+                else if (index >= requestedFrom && index < requestedTo) icons.put(index, new ImageIcon(img));
+                requested.remove(f);
+                repaint(cellBounds(index));
+            });
+        }
+    }
+
+    // ---------- Scrollable ----------
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(4 * (CELL_W + GAP) + GAP, 3 * (CELL_H + GAP) + GAP);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return (CELL_H + GAP) / 3;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL
+                ? Math.max(CELL_H + GAP, visibleRect.height - (CELL_H + GAP)) : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
@@ -1,21 +1,95 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.Arrays;
 
 /**
  * HistogramProcessor
- * - generateHistogramImage: returns a visual histogram (RGB-luminance)
- * - equalize: simple grayscale histogram equalization (returns grayscale)
- * - stretch: contrast stretching (grayscale)
+ * - compute: R, G, B and luminance histograms in one parallel pass
+ * - generateHistogramImage: visual histogram (luminance bars, RGB curves)
+ * - equalize: histogram equalization through a 256-entry LUT
+ * - stretch: contrast stretching through a 256-entry LUT
+ *
+ * LUTs are applied either to luminance only (color is preserved) or to each
+ * channel separately. The apply pass also collects the histogram of the
+ * result, so callers can draw it without scanning the image again.
  */
 public class HistogramProcessor {
 
+    public enum Mode { LUMINANCE, PER_CHANNEL }
+
+    /** Per-channel histograms of an image; gray images have red == green == blue == luma. */
+    public static final class Histogram {
+        public final int[] red = new int[256];
+        public final int[] green = new int[256];
+        public final int[] blue = new int[256];
+        public final int[] luma = new int[256];
+        public long count;
+        public boolean color;
+
+        private synchronized void merge(Histogram o) {
+            for (int i = 0; i < 256; i++) {
+                red[i] += o.red[i];
+                green[i] += o.green[i];
+                blue[i] += o.blue[i];
+                luma[i] += o.luma[i];
+            }
+            count += o.count;
+            color |= o.color;
+        }
+
+        // samples of one row in PixelBuffer band order
+        private void addRow(int[] row, int w, int bands) {
+            if (bands < 3) {
+                for (int x = 0; x < w; x++) luma[row[x * bands]]++;
+            } else {
+                color = true;
+                for (int x = 0, i = 0; x < w; x++, i += bands) {
+                    int r = row[i], g = row[i + 1], b = row[i + 2];
+                    red[r]++;
+                    green[g]++;
+                    blue[b]++;
+                    luma[PixelBuffer.luma(r, g, b)]++;
+                }
+            }
+            count += w;
+        }
+
+        private void finish() {
+            if (color) return;
+            System.arraycopy(luma, 0, red, 0, 256);
+            System.arraycopy(luma, 0, green, 0, 256);
+            System.arraycopy(luma, 0, blue, 0, 256);
+        }
+    }
+
+    /** Histograms of src, from one pass over its pixels with per-band partial counts. */
+    public static Histogram compute(BufferedImage src) {
+        PixelBuffer pb = PixelBuffer.wrap(PixelBuffer.toSupported(src));
+        Histogram total = new Histogram();
+        TileScheduler.forEachBand(pb.height, 0, (y0, y1) -> {
+            Histogram part = new Histogram();
+            int[] row = new int[pb.width * pb.bands];
+            for (int y = y0; y < y1; y++) {
+                pb.readRow(y, row);
+                part.addRow(row, pb.width, pb.bands);
+            }
+            total.merge(part);
+        });
+        total.finish();
+        return total;
+    }
+
     public static BufferedImage generateHistogramImage(BufferedImage src) {
-        BufferedImage gray = toGray(src);
-        int w = gray.getWidth(), h = gray.getHeight();
-        int[] hist = new int[256];
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++) hist[gray.getRaster().getSample(x,y,0)]++;
-        int max = Arrays.stream(hist).max().orElse(1);
+        return generateHistogramImage(compute(src));
+    }
+
+    public static BufferedImage generateHistogramImage(Histogram hist) {
+        int max = 1;
+        for (int v : hist.luma) max = Math.max(max, v);
+        if (hist.color) {
+            for (int i = 0; i < 256; i++) {
+                max = Math.max(max, Math.max(hist.red[i], Math.max(hist.green[i], hist.blue[i])));
+            }
+        }
 
         int hw = 512, hh = 200;
         BufferedImage out = new BufferedImage(hw, hh, BufferedImage.TYPE_INT_RGB);
@@ -25,57 +99,147 @@ public class HistogramProcessor {
         g.setColor(Color.DARK_GRAY);
 
         for (int i=0;i<256;i++){
-            int val = hist[i];
-            int barH = (int)((val/(double)max) * (hh-20));
+            int barH = (int)((hist.luma[i]/(double)max) * (hh-20));
             int x = (int)(i * (hw/256.0));
             g.fillRect(x, hh-10-barH, (int)Math.ceil(hw/256.0), barH);
         }
+
+        if (hist.color) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            drawCurve(g, hist.red, max, new Color(220, 40, 40, 200), hw, hh);
+            drawCurve(g, hist.green, max, new Color(40, 160, 40, 200), hw, hh);
+            drawCurve(g, hist.blue, max, new Color(40, 80, 220, 200), hw, hh);
+        }
         g.dispose();
         return out;
     }
 
-    public static BufferedImage equalize(BufferedImage src) {
-        BufferedImage gray = toGray(src);
-        int w = gray.getWidth(), h = gray.getHeight();
-        int[] hist = new int[256];
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++) hist[gray.getRaster().getSample(x,y,0)]++;
-        int total = w*h;
-        int[] cdf = new int[256];
-        cdf[0] = hist[0];
-        for (int i=1;i<256;i++) cdf[i] = cdf[i-1] + hist[i];
-        BufferedImage out = new BufferedImage(w,h,BufferedImage.TYPE_BYTE_GRAY);
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++){
-            int v = gray.getRaster().getSample(x,y,0);
-            int nv = (cdf[v]*255)/total;
-            out.getRaster().setSample(x,y,0,nv);
+    private static void drawCurve(Graphics2D g, int[] hist, int max, Color c, int hw, int hh) {
+        int[] xs = new int[256], ys = new int[256];
+        for (int i=0;i<256;i++){
+            xs[i] = (int)((i + 0.5) * (hw/256.0));
+            ys[i] = hh-10 - (int)((hist[i]/(double)max) * (hh-20));
         }
-        return out;
+        g.setColor(c);
+        g.drawPolyline(xs, ys, 256);
+    }
+
+    // ---------- equalize / stretch ----------
+
+    public static BufferedImage equalize(BufferedImage src) {
+        return equalize(src, Mode.LUMINANCE, null);
+    }
+
+    /**
+     * @param outStats If non-null, a fresh Histogram that receives the histogram of the result
+     */
+    public static BufferedImage equalize(BufferedImage src, Mode mode, Histogram outStats) {
+        Histogram h = TileScheduler.inStage(0, 0.4, () -> compute(src));
+        return TileScheduler.inStage(0.4, 1, () -> {
+            if (mode == Mode.LUMINANCE) return applyLut(src, equalizeLut(h.luma, h.count), outStats);
+            return applyLuts(src, equalizeLut(h.red, h.count), equalizeLut(h.green, h.count),
+                    equalizeLut(h.blue, h.count), outStats);
+        });
     }
 
     public static BufferedImage stretch(BufferedImage src) {
-        BufferedImage gray = toGray(src);
-        int w = gray.getWidth(), h = gray.getHeight();
-        int min=255,max=0;
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++){
-            int v = gray.getRaster().getSample(x,y,0);
-            if (v<min) min=v;
-            if (v>max) max=v;
+        return stretch(src, Mode.LUMINANCE, null);
+    }
+
+    /**
+     * @param outStats If non-null, a fresh Histogram that receives the histogram of the result
+     */
+    public static BufferedImage stretch(BufferedImage src, Mode mode, Histogram outStats) {
+        Histogram h = TileScheduler.inStage(0, 0.4, () -> compute(src));
+        return TileScheduler.inStage(0.4, 1, () -> {
+            if (mode == Mode.LUMINANCE) return applyLut(src, stretchLut(h.luma), outStats);
+            return applyLuts(src, stretchLut(h.red), stretchLut(h.green), stretchLut(h.blue), outStats);
+        });
+    }
+
+    /** Equalization mapping: cdf(v) * 255 / total. */
+    public static int[] equalizeLut(int[] hist, long total) {
+        int[] lut = new int[256];
+        long cdf = 0;
+        for (int i=0;i<256;i++) {
+            cdf += hist[i];
+            lut[i] = (int) ((cdf*255) / Math.max(1, total));
         }
-        if (max==min) return gray;
-        BufferedImage out = new BufferedImage(w,h,BufferedImage.TYPE_BYTE_GRAY);
-        for (int y=0;y<h;y++) for (int x=0;x<w;x++){
-            int v = gray.getRaster().getSample(x,y,0);
-            int nv = (v-min)*255/(max-min);
-            out.getRaster().setSample(x,y,0,nv);
+        return lut;
+    }
+
+    /** Linear mapping of the occupied range [min, max] onto [0, 255]. */
+    public static int[] stretchLut(int[] hist) {
+        int min = 0, max = 255;
+        while (min < 255 && hist[min] == 0) min++;
+        while (max > 0 && hist[max] == 0) max--;
+        int[] lut = new int[256];
+        for (int v=0;v<256;v++) {
+            lut[v] = max <= min ? v : Math.max(0, Math.min(255, (v-min)*255/(max-min)));
         }
-        return out;
+        return lut;
+    }
+
+    /**
+     * Maps luminance through lut and shifts R, G and B by the same amount, so
+     * hue and saturation are kept. Alpha is unchanged.
+     */
+    public static BufferedImage applyLut(BufferedImage src, int[] lut, Histogram outStats) {
+        return apply(src, lut, null, null, null, outStats);
+    }
+
+    /** Maps R, G and B through their own LUTs (gray images use red). Alpha is unchanged. */
+    public static BufferedImage applyLuts(BufferedImage src, int[] red, int[] green, int[] blue, Histogram outStats) {
+        return apply(src, null, red, green, blue, outStats);
     }
 
-    private static BufferedImage toGray(BufferedImage src) {
-        BufferedImage gray = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Graphics g = gray.getGraphics();
-        g.drawImage(src, 0, 0, null);
+    private static BufferedImage apply(BufferedImage src, int[] lumaLut, int[] rLut, int[] gLut, int[] bLut,
+                                       Histogram outStats) {
+        BufferedImage work = PixelBuffer.toSupported(src);
+        BufferedImage out = PixelBuffer.createCompatible(work);
+        PixelBuffer in = PixelBuffer.wrap(work), dst = PixelBuffer.wrap(out);
+        int w = in.width, nb = in.bands;
+
+        TileScheduler.forEachBand(in.height, 0, (y0, y1) -> {
+            int[] row = new int[w * nb];
+            Histogram part = outStats == null ? null : new Histogram();
+            for (int y = y0; y < y1; y++) {
+                in.readRow(y, row);
+                if (nb < 3) {
+                    int[] lut = lumaLut != null ? lumaLut : rLut;
+                    for (int i = 0; i < row.length; i += nb) row[i] = lut[row[i]];
+                } else if (lumaLut != null) {
+                    for (int i = 0; i < row.length; i += nb) {
+                        int r = row[i], g = row[i + 1], b = row[i + 2];
+                        int l = PixelBuffer.luma(r, g, b);
+                        int d = lumaLut[l] - l;
+                        row[i] = clamp(r + d);
+                        row[i + 1] = clamp(g + d);
+                        row[i + 2] = clamp(b + d);
+                    }
+                } else {
+                    for (int i = 0; i < row.length; i += nb) {
+                        row[i] = rLut[row[i]];
+                        row[i + 1] = gLut[row[i + 1]];
+                        row[i + 2] = bLut[row[i + 2]];
+                    }
+                }
+                dst.writeRow(y, row);
+                if (part != null) part.addRow(row, w, nb);
+            }
+            if (part != null) outStats.merge(part);
+        });
+        if (outStats != null) outStats.finish();
+
+        if (work == src) return out;
+        BufferedImage typed = PixelBuffer.createCompatible(src);
+        Graphics2D g = typed.createGraphics();
+        g.drawImage(out, 0, 0, null);
         g.dispose();
-        return gray;
+        return typed;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : v > 255 ? 255 : v;
     }
 }
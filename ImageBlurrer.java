@@ -1,25 +1,86 @@
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 
+/**
+ * ImageBlurrer
+ * ----------------------------
+ * Box blur implemented as two running-sum passes (horizontal, then vertical),
+ * so the cost per pixel does not depend on the radius.
+ * All bands are blurred, alpha included; edges are clamped (the border pixel
+ * is repeated) and the result has the same type as the source.
+ */
 public class ImageBlurrer {
 
     public static BufferedImage blurRadius(BufferedImage src, int radius) {
         if (src == null) return null;
         if (radius <= 0) return copy(src);
 
-        int size = radius * 2 + 1;
-        float[] kernel = new float[size * size];
-        float val = 1f / (size * size);
+        BufferedImage work = PixelBuffer.toSupported(src);
+        BufferedImage out = PixelBuffer.createCompatible(work);
+        boxBlur(PixelBuffer.wrap(work), PixelBuffer.wrap(out), radius);
 
-        for (int i = 0; i < kernel.length; i++)
-            kernel[i] = val;
+        if (work == src) return out;
+        BufferedImage typed = PixelBuffer.createCompatible(src);
+        Graphics2D g = typed.createGraphics();
+        g.drawImage(out, 0, 0, null);
+        g.dispose();
+        return typed;
+    }
 
-        ConvolveOp op = new ConvolveOp(new Kernel(size, size, kernel), ConvolveOp.EDGE_NO_OP, null);
-        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
-        op.filter(src, out);
+    private static void boxBlur(PixelBuffer in, PixelBuffer out, int radius) {
+        int w = in.width, h = in.height, nb = in.bands;
+        int[] divX = divisionTable(2 * radius + 1);
+        int stride = w * nb;
+        byte[] tmp = new byte[stride * h];
 
-        return out;
+        // horizontal pass: rows -> tmp, averaged and rounded to 8 bits
+        TileScheduler.forEachBand(h, 0, (y0, y1) -> {
+            int[] line = new int[stride];
+            int[] sum = new int[nb];
+            for (int y = y0; y < y1; y++) {
+                in.readRow(y, line);
+                int base = y * stride;
+                for (int b = 0; b < nb; b++) {
+                    int s = (radius + 1) * line[b];
+                    for (int i = 1; i <= radius; i++) s += line[Math.min(i, w - 1) * nb + b];
+                    sum[b] = s;
+                }
+                for (int x = 0; x < w; x++) {
+                    int add = Math.min(x + radius + 1, w - 1) * nb;
+                    int sub = Math.max(x - radius, 0) * nb;
+                    int o = base + x * nb;
+                    for (int b = 0; b < nb; b++) {
+                        tmp[o + b] = (byte) divX[sum[b]];
+                        sum[b] += line[add + b] - line[sub + b];
+                    }
+                }
+            }
+        });
+
+        // vertical pass: one running sum per column and band, primed from the
+        // halo above the band and swept top to bottom
+        TileScheduler.forEachBand(h, radius, (y0, y1) -> {
+            int[] line = new int[stride];
+            int[] col = new int[stride];
+            for (int j = -radius; j <= radius; j++) {
+                int row = Math.max(0, Math.min(y0 + j, h - 1)) * stride;
+                for (int i = 0; i < stride; i++) col[i] += tmp[row + i] & 0xFF;
+            }
+            for (int y = y0; y < y1; y++) {
+                for (int i = 0; i < stride; i++) line[i] = divX[col[i]];
+                out.writeRow(y, line);
+                int add = Math.min(y + radius + 1, h - 1) * stride;
+                int sub = Math.max(y - radius, 0) * stride;
+                for (int i = 0; i < stride; i++) col[i] += (tmp[add + i] & 0xFF) - (tmp[sub + i] & 0xFF);
+            }
+        });
+    }
+
+    // table[s] == round(s / n) for every window sum s of n 8-bit samples
+    private static int[] divisionTable(int n) {
+        int[] t = new int[n * 255 + 1];
+        for (int s = 0; s < t.length; s++) t[s] = (s + n / 2) / n;
+        return t;
     }
 
     private static BufferedImage copy(BufferedImage src) {
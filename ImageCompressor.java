@@ -1,28 +1,356 @@
 import javax.imageio.*;
+import javax.imageio.event.IIOWriteProgressListener;
 import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * ImageCompressor
+ * - saveCompressedJPG: JPEG file at a given quality
+ * - encodeJPG / encodedSize / roundTripJPG: the same encoding done in memory,
+ *   for previews and size estimates
+ * - encodeToSize / saveToSize: the highest quality whose JPEG fits a byte
+ *   budget, found by a parallel bisection over the qualities 0.01 - 1
+ *
+ * Each thread keeps one JPEG writer, one reader and one growable byte buffer
+ * (wrapped as an ImageOutputStream that can be read back), so repeated
+ * encodes neither look up codecs nor touch the disk. Images with alpha are
+ * flattened to RGB first, since the JPEG writer rejects them. The size search
+ * runs its candidates on a small shared pool of threads, so it reuses those
+ * threads' writers too.
+ */
 public class ImageCompressor {
 
+    /** Per-thread codec state; ImageWriter / ImageReader are not thread-safe. */
+    private static final class Codec {
+        final ImageWriter writer;
+        final ImageWriteParam param;
+        final ImageReader reader;
+        final MemoryStream buffer = new MemoryStream();
+
+        Codec() throws IOException {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+            if (!writers.hasNext()) throw new IOException("No JPG writer found.");
+            writer = writers.next();
+            param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            reader = ImageIO.getImageReader(writer);
+            // abort long encodes when the surrounding TileScheduler work is cancelled
+            writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+                public void imageStarted(ImageWriter source, int imageIndex) {}
+                public void imageProgress(ImageWriter source, float percentageDone) {
+                    try {
+                        TileScheduler.checkCancelled();
+                    } catch (CancellationException e) {
+                        source.abort();
+                    }
+                }
+                public void imageComplete(ImageWriter source) {}
+                public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {}
+                public void thumbnailProgress(ImageWriter source, float percentageDone) {}
+                public void thumbnailComplete(ImageWriter source) {}
+                public void writeAborted(ImageWriter source) {}
+            });
+        }
+    }
+
+    /** Outcome of a target-size search. */
+    public static final class SizeResult {
+        /** Chosen quality (0.01 - 1); the lowest tried when nothing fits. */
+        public final float quality;
+        /** JPEG bytes at that quality. */
+        public final byte[] data;
+        /** Candidate encodes the search ran. */
+        public final int encodes;
+        /** False if even the lowest quality exceeds the budget. */
+        public final boolean fits;
+
+        SizeResult(float quality, byte[] data, int encodes, boolean fits) {
+            this.quality = quality;
+            this.data = data;
+            this.encodes = encodes;
+            this.fits = fits;
+        }
+
+        public int size() {
+            return data.length;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("quality %.2f, %,d bytes, %d encodes%s", quality, data.length, encodes,
+                    fits ? "" : " (over the limit)");
+        }
+    }
+
+    private static final ThreadLocal<Codec> CODECS = new ThreadLocal<>();
+
+    // candidate encodes of encodeToSize ("jpeg.search.threads"); each thread keeps its own Codec
+    private static final int SEARCH_THREADS = Math.max(1,
+            Integer.getInteger("jpeg.search.threads", Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private static ExecutorService searchPool;
+
+    private static synchronized ExecutorService searchPool() {
+        if (searchPool == null) {
+            AtomicInteger n = new AtomicInteger(1);
+            searchPool = Executors.newFixedThreadPool(SEARCH_THREADS, r -> {
+                Thread t = new Thread(r, "jpeg-search-" + n.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return searchPool;
+    }
+
+    private static Codec codec() throws IOException {
+        Codec c = CODECS.get();
+        if (c == null) {
+            c = new Codec();
+            CODECS.set(c);
+        }
+        return c;
+    }
+
     public static void saveCompressedJPG(BufferedImage img, File output, float quality) throws IOException {
         if (img == null) throw new IOException("Image is null.");
 
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
-        if (!writers.hasNext()) throw new IOException("No JPG writer found.");
-        ImageWriter writer = writers.next();
+        Codec c = codec();
+        FileImageOutputStream fios = new FileImageOutputStream(output);
+        try {
+            write(c, img, fios, quality);
+        } finally {
+            fios.close();
+        }
+    }
 
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(quality);
+    /** JPEG bytes of img at the given quality (0..1). */
+    public static byte[] encodeJPG(BufferedImage img, float quality) throws IOException {
+        Codec c = encodeToBuffer(img, quality);
+        return c.buffer.toByteArray();
+    }
 
-        FileImageOutputStream fios = new FileImageOutputStream(output);
-        writer.setOutput(fios);
-        writer.write(null, new IIOImage(img, null, null), param);
+    /** Exact size in bytes of the JPEG encoding of img, without keeping the bytes. */
+    public static int encodedSize(BufferedImage img, float quality) throws IOException {
+        return (int) encodeToBuffer(img, quality).buffer.length();
+    }
+
+    /** Encodes img to JPEG in memory and decodes it again, showing the compression artifacts. */
+    public static BufferedImage roundTripJPG(BufferedImage img, float quality) throws IOException {
+        Codec c = encodeToBuffer(img, quality);
+        c.buffer.seek(0);
+        c.reader.setInput(c.buffer, true, true);
+        try {
+            return c.reader.read(0);
+        } finally {
+            c.reader.setInput(null);
+        }
+    }
+
+    /**
+     * Highest JPEG quality (in steps of 0.01) whose encoding of img fits in
+     * maxBytes. Every round encodes up to one candidate per search thread in
+     * memory and narrows the range to the gap between the best fitting and the
+     * first oversized candidate, so the search takes about log5(100) rounds.
+     * File size grows with quality, but not strictly, so the result is the best
+     * candidate tried rather than a guaranteed global optimum.
+     *
+     * Runs under the caller's TileScheduler token (progress per round, cancel).
+     */
+    public static SizeResult encodeToSize(BufferedImage img, long maxBytes) throws IOException {
+        return encodeToSize(img, maxBytes, SEARCH_THREADS);
+    }
+
+    /**
+     * Same as {@link #encodeToSize(BufferedImage, long)} with at most parallel
+     * candidates per round (1 is a plain bisection).
+     */
+    public static SizeResult encodeToSize(BufferedImage img, long maxBytes, int parallel) throws IOException {
+        if (img == null) throw new IOException("Image is null.");
+        BufferedImage rgb = withoutAlpha(img);
+        TileScheduler.CancellationToken token = TileScheduler.currentToken();
+        int perRound = Math.max(1, Math.min(parallel, SEARCH_THREADS));
+
+        // qualities in hundredths; lo fits (0 = nothing found yet), hi does not (101 = nothing tried)
+        int lo = 0, hi = 101, encodes = 0;
+        byte[] best = null, smallest = null;
+        int rounds = 0, expected = (int) Math.ceil(Math.log(101) / Math.log(perRound + 1));
+        while (hi - lo > 1) {
+            TreeSet<Integer> candidates = new TreeSet<>();
+            for (int i = 1; i <= perRound; i++) {
+                int q = lo + (int) Math.round((hi - lo) * (double) i / (perRound + 1));
+                if (q > lo && q < hi) candidates.add(q);
+            }
+            if (candidates.isEmpty()) candidates.add(lo + 1);
+
+            List<Integer> qualities = new ArrayList<>(candidates);
+            List<Future<byte[]>> jobs = new ArrayList<>();
+            for (int q : qualities) {
+                jobs.add(searchPool().submit(() -> TileScheduler.call(token, () -> encodeJPG(rgb, q / 100f))));
+            }
+            int newLo = lo, newHi = hi;
+            for (int i = 0; i < jobs.size(); i++) {
+                byte[] data = get(jobs, i);
+                int q = qualities.get(i);
+                encodes++;
+                if (data.length <= maxBytes) {
+                    if (q > newLo) {
+                        newLo = q;
+                        best = data;
+                    }
+                } else if (q < newHi && q > newLo) {
+                    newHi = q;
+                }
+                if (q == 1) smallest = data;
+            }
+            // a fitting candidate above an oversized one (non-monotonic sizes) keeps the fitting one
+            if (newHi <= newLo) newHi = hi;
+            lo = newLo;
+            hi = newHi;
+            TileScheduler.progress(Math.min(1, ++rounds / (double) expected));
+        }
+        if (best != null) return new SizeResult(lo / 100f, best, encodes, true);
+        if (smallest == null) smallest = encodeJPG(rgb, 0.01f);
+        return new SizeResult(0.01f, smallest, encodes, false);
+    }
+
+    /** encodeToSize, writing the chosen encoding to output. */
+    public static SizeResult saveToSize(BufferedImage img, File output, long maxBytes) throws IOException {
+        SizeResult r = encodeToSize(img, maxBytes);
+        Files.write(output.toPath(), r.data);
+        return r;
+    }
+
+    // result of job i; cancels the others when it failed
+    private static byte[] get(List<Future<byte[]>> jobs, int i) throws IOException {
+        try {
+            return jobs.get(i).get();
+        } catch (InterruptedException e) {
+            for (Future<byte[]> f : jobs) f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<byte[]> f : jobs) f.cancel(true);
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        }
+    }
+
+    /** Uncompressed size of img as 8-bit samples (3 per pixel, 1 for gray), the basis of compression ratios. */
+    public static long rawSize(BufferedImage img) {
+        int bands = img.getColorModel().getNumColorComponents() == 1 ? 1 : 3;
+        return (long) img.getWidth() * img.getHeight() * bands;
+    }
+
+    private static Codec encodeToBuffer(BufferedImage img, float quality) throws IOException {
+        if (img == null) throw new IOException("Image is null.");
+        Codec c = codec();
+        c.buffer.clear();
+        write(c, img, c.buffer, quality);
+        return c;
+    }
+
+    private static void write(Codec c, BufferedImage img, Object out, float quality) throws IOException {
+        c.param.setCompressionQuality(quality);
+        c.writer.setOutput(out);
+        try {
+            c.writer.write(null, new IIOImage(withoutAlpha(img), null, null), c.param);
+        } finally {
+            c.writer.setOutput(null);
+        }
+        TileScheduler.checkCancelled();
+    }
+
+    private static BufferedImage withoutAlpha(BufferedImage img) {
+        if (!img.getColorModel().hasAlpha()) return img;
+        BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    /**
+     * Growable in-memory ImageOutputStream that can also be read back, so the
+     * encoded bytes go to the reader without a copy. The array is kept across
+     * clear() calls.
+     */
+    private static final class MemoryStream extends ImageOutputStreamImpl {
+        private byte[] buf = new byte[1 << 16];
+        private int length;
+
+        void clear() {
+            length = 0;
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, length);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            // readers seek back over what the writer flushed
+            flushedPos = 0;
+            super.seek(pos);
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            return streamPos < length ? buf[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            if (streamPos >= length) return -1;
+            int n = (int) Math.min(len, length - streamPos);
+            System.arraycopy(buf, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(streamPos + 1);
+            buf[(int) streamPos++] = (byte) b;
+            length = Math.max(length, (int) streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(streamPos + len);
+            System.arraycopy(b, off, buf, (int) streamPos, len);
+            streamPos += len;
+            length = Math.max(length, (int) streamPos);
+        }
 
-        writer.dispose();
-        fios.close();
+        private void ensure(long size) {
+            if (size > buf.length) buf = Arrays.copyOf(buf, (int) Math.max(size, Math.min(Integer.MAX_VALUE - 8, 2L * buf.length)));
+        }
     }
 }
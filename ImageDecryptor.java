@@ -1,29 +1,38 @@
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 public class ImageDecryptor {
 
     /**
      * Decrypts a .enc file using a HEX key entered by user.
      *
+     * The file is read through a streaming AES-GCM cipher that feeds the image
+     * decoder directly, without first loading the file or the plaintext into
+     * byte arrays.
+     *
      * @param file    Encrypted file
      * @param hexKey  Key provided by the user (hex string)
      * @return        BufferedImage after decryption
      */
     public static BufferedImage decryptFileWithKey(File file, String hexKey) throws Exception {
 
-        // Load encrypted bytes
-        byte[] encrypted = Files.readAllBytes(file.toPath());
-
         // Create AES object using the user-provided key
         AESEncryption aesTemp = new AESEncryption(hexKey);
 
-        // Decrypt
-        byte[] plain = aesTemp.decrypt(encrypted);
+        try (InputStream in = aesTemp.decryptingStream(
+                new BufferedInputStream(Channels.newInputStream(FileChannel.open(file.toPath())), 1 << 16))) {
 
-        // Convert bytes → image
-        return ImageUtils.loadImage(new ByteArrayInputStream(plain));
+            // ImageIO.read closes the image stream itself
+            BufferedImage img = ImageIO.read(new MemoryCacheImageInputStream(in));
+            if (img == null) throw new IOException("Invalid key, or not an encrypted image");
+            return img;
+        }
     }
 }
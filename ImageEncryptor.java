@@ -1,26 +1,48 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 
 public class ImageEncryptor {
 
     /**
-     * Encrypts a BufferedImage using AES-GCM and saves the encrypted
-     * byte array to a .enc file.
+     * Encrypts a BufferedImage using AES-GCM and saves it to a .enc file.
+     *
+     * The PNG encoder writes straight into the AES-GCM stream, which writes
+     * to the file channel, so neither the PNG nor the ciphertext is held in
+     * memory as a whole. A partially written file is removed on failure.
      *
      * @param img     Image to encrypt
      * @param output  Target output file (.enc)
      * @param aes     AESEncryption instance (fresh key each time)
      */
     public static void encryptAndSave(BufferedImage img, File output, AESEncryption aes) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
 
-        // Convert image to PNG bytes
-        byte[] bytes = ImageUtils.toBytes(img, "png", 1f);
-
-        // AES encrypt
-        byte[] encrypted = aes.encrypt(bytes);
-
-        // Save encrypted bytes
-        Files.write(output.toPath(), encrypted);
+        FileChannel channel = FileChannel.open(output.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        boolean ok = false;
+        try (OutputStream enc = aes.encryptingStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            // the PNG writer seeks back within each chunk only; the memory cache
+            // releases everything before the current chunk as it goes
+            ImageOutputStream ios = new MemoryCacheImageOutputStream(enc);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), null);
+            ios.close();
+            ok = true;
+        } finally {
+            writer.dispose();
+            channel.close();
+            if (!ok) Files.deleteIfExists(output.toPath());
+        }
     }
 }
@@ -1,8 +1,19 @@
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.RescaleOp;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class ImageEnhancer {
 
+    // recently used contrast/brightness LUTs, least recently used evicted first
+    private static final int LUT_CACHE_SIZE = 32;
+    private static final Map<Long, int[]> LUTS = new LinkedHashMap<Long, int[]>(LUT_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+            return size() > LUT_CACHE_SIZE;
+        }
+    };
+
     /**
      * Enhances an image using contrast and brightness.
      *
@@ -11,12 +22,104 @@ public class ImageEnhancer {
      * @param brightness Offset (-100 to +100)
      */
     public static BufferedImage enhance(BufferedImage src, float contrast, int brightness) {
+        return enhance(src, contrast, brightness, null);
+    }
+
+    /**
+     * Enhances an image using contrast and brightness, as a 256-entry lookup
+     * table applied to the color bands (alpha is unchanged).
+     *
+     * @param src Original image
+     * @param contrast Factor (1.0 = normal, 1.5 = +50%)
+     * @param brightness Offset (-100 to +100)
+     * @param dest Image to write into (same size and type as src, may be src
+     *             itself), or null to allocate one of the same type as src
+     * @return dest, or the newly allocated image
+     */
+    public static BufferedImage enhance(BufferedImage src, float contrast, int brightness, BufferedImage dest) {
         if (src == null) return null;
+        if (dest == null) {
+            dest = PixelBuffer.createCompatible(src);
+        } else if (dest.getWidth() != src.getWidth() || dest.getHeight() != src.getHeight()
+                || dest.getType() != src.getType()) {
+            throw new IllegalArgumentException("Destination must match the source size and type");
+        }
+
+        int[] lut = lut(contrast, brightness);
+        PixelBuffer in = PixelBuffer.wrap(src);
+        if (in == null) {
+            // indexed / premultiplied / custom layouts go through INT_ARGB
+            BufferedImage tmp = PixelBuffer.convert(src, BufferedImage.TYPE_INT_ARGB);
+            apply(PixelBuffer.wrap(tmp), PixelBuffer.wrap(tmp), lut);
+            Graphics2D g = dest.createGraphics();
+            g.drawImage(tmp, 0, 0, null);
+            g.dispose();
+            return dest;
+        }
+        apply(in, PixelBuffer.wrap(dest), lut);
+        return dest;
+    }
+
+    private static void apply(PixelBuffer in, PixelBuffer out, int[] lut) {
+        int w = in.width, nb = in.bands;
+        int colorBands = in.hasAlpha ? nb - 1 : nb;
 
-        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        RescaleOp op = new RescaleOp(contrast, brightness, null);
-        op.filter(src, out);
+        // alpha-free byte images: every sample is a color sample, map the row as a flat run
+        if (in.bytes != null && colorBands == nb && in.pixelStride == nb && out.pixelStride == nb) {
+            byte[] s = in.bytes, d = out.bytes;
+            int n = w * nb;
+            TileScheduler.forEachBand(in.height, 0, (y0, y1) -> {
+                for (int y = y0; y < y1; y++) {
+                    for (int i = in.rowStart(y), o = out.rowStart(y), e = i + n; i < e; i++, o++) {
+                        d[o] = (byte) lut[s[i] & 0xFF];
+                    }
+                }
+            });
+            return;
+        }
+
+        // packed 8-bit RGB(A) ints: map the three color bytes, keep the top byte
+        if (in.ints != null && colorBands == 3 && in.isPackedRGB() && out.isPackedRGB()) {
+            int[] s = in.ints, d = out.ints;
+            TileScheduler.forEachBand(in.height, 0, (y0, y1) -> {
+                for (int y = y0; y < y1; y++) {
+                    for (int i = in.rowStart(y), o = out.rowStart(y), e = i + w; i < e; i++, o++) {
+                        int px = s[i];
+                        d[o] = (px & 0xFF000000) | lut[(px >>> 16) & 0xFF] << 16
+                                | lut[(px >>> 8) & 0xFF] << 8 | lut[px & 0xFF];
+                    }
+                }
+            });
+            return;
+        }
+
+        TileScheduler.forEachBand(in.height, 0, (y0, y1) -> {
+            int[] row = new int[w * nb];
+            for (int y = y0; y < y1; y++) {
+                in.readRow(y, row);
+                for (int i = 0; i < row.length; i += nb) {
+                    for (int b = 0; b < colorBands; b++) row[i + b] = lut[row[i + b]];
+                }
+                out.writeRow(y, row);
+            }
+        });
+    }
 
-        return out;
+    /** lut[v] = clamp(v * contrast + brightness), cached per (contrast, brightness). */
+    private static int[] lut(float contrast, int brightness) {
+        long key = ((long) Float.floatToIntBits(contrast) << 32) | (brightness & 0xFFFFFFFFL);
+        synchronized (LUTS) {
+            int[] lut = LUTS.get(key);
+            if (lut != null) return lut;
+        }
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            float f = v * contrast + brightness;
+            lut[v] = f <= 0f ? 0 : f >= 255f ? 255 : (int) f;
+        }
+        synchronized (LUTS) {
+            LUTS.put(key, lut);
+        }
+        return lut;
     }
 }
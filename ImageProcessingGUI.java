@@ -6,10 +6,16 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.nio.file.Files;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 public class ImageProcessingGUI {
 
@@ -28,42 +34,141 @@ public class ImageProcessingGUI {
 
     // Images
     private BufferedImage originalImage = null;
+    private int imageGeneration;   // bumped by every upload; tool tasks are keyed by it
     private BufferedImage baseImage = null;
-    private BufferedImage previewImage = null;
+    // display-size copy of baseImage; slider previews run on it, Apply / Save Copy on baseImage
+    private BufferedImage proxyImage = null;
+    private static final int PREVIEW_W = 820, PREVIEW_H = 500;
 
     // Sliders
     private JSlider contrastSlider, brightnessSlider, valueSlider;
-    private JPanel contrastPanel, brightnessPanel, valuePanel;
+    private JPanel contrastPanel, brightnessPanel, valuePanel, fitSizePanel;
 
     // Preview
-    private JLabel previewLabel;
-
-    // Operations
-    private Operation currentOp = Operation.NONE;
+    private ImageViewer viewer;
+    private boolean detail;   // viewer zoomed past the proxy's resolution: previews render at full resolution
+    private JProgressBar renderProgress;
+    private boolean busy;   // a runBusy task or an upload is running; either replaces baseImage
+    private RoundedButton applyBtn, saveBtn, undoBtn, redoBtn;
+    private JLabel previewMetrics, previewInfo;
+    private final PreviewScheduler<RenderParams, Preview> previewScheduler = new PreviewScheduler<>(
+            this::renderPreview,
+            preview -> {
+                viewer.setPyramid(preview.pyramid);
+                previewMetrics.setText(this.previewScheduler.getMetricsText() + " | " + preview.stats);
+            });
+    // exact JPEG size of a selected compress step: a full-resolution encode, so it runs apart from the
+    // preview, at low priority, once the slider has settled; the info line shows it when done
+    private final PreviewScheduler<RenderParams, String> sizeScheduler = new PreviewScheduler<>(
+            "compress-size", Thread.MIN_PRIORITY, this::measureCompressed, info -> previewInfo.setText(info));
+    private final Timer sizeSettle = new Timer(300, e -> submitSizeMeasure());
+
+    // applied steps of the loaded image, as compressed tile deltas (budget in MB via -Dhistory.budget.mb)
+    private final EditHistory history = new EditHistory(Long.getLong("history.budget.mb", 256) << 20);
+
+    // Operations: pending steps on top of baseImage (not yet applied) and the one the sliders edit
+    private final List<StepParams> chain = new ArrayList<>();
+    private int selectedStep = -1;
+    private boolean loadingStep;   // sliders / step list are being set programmatically
+    private DefaultListModel<String> stepModel;
+    private JList<String> stepList;
     enum Operation { NONE, ENHANCE, SHARPEN, BLUR, COMPRESS }
 
-    // Counters
-    private AtomicInteger enhancedC = new AtomicInteger(1);
-    private AtomicInteger sharpenedC = new AtomicInteger(1);
-    private AtomicInteger blurredC = new AtomicInteger(1);
-    private AtomicInteger compressedC = new AtomicInteger(1);
-    private AtomicInteger encryptedC = new AtomicInteger(1);
-    private AtomicInteger decryptedC = new AtomicInteger(1);
+    // cached outputs of every step, for the proxy preview and at full resolution (-Dchain.budget.mb)
+    private final OperationChain previewChain = new OperationChain(64L << 20);
+    private final OperationChain fullChain = new OperationChain(Long.getLong("chain.budget.mb", 512) << 20);
+
+    /** One step of the chain: an operation and its slider values. */
+    private static final class StepParams {
+        final Operation op;
+        final int contrast, brightness, value;
+
+        StepParams(Operation op, int contrast, int brightness, int value) {
+            this.op = op;
+            this.contrast = contrast;
+            this.brightness = brightness;
+            this.value = value;
+        }
+
+        /** A new step with the starting slider values of op. */
+        static StepParams defaults(Operation op) {
+            switch(op){
+                case SHARPEN:  return new StepParams(op, 100, 0, 100);
+                case BLUR:     return new StepParams(op, 100, 0, 0);
+                case COMPRESS: return new StepParams(op, 100, 0, 80);
+                default:       return new StepParams(op, 100, 0, 50);
+            }
+        }
+
+        String describe() {
+            switch(op){
+                case ENHANCE:  return String.format("enhance (contrast %.2f, brightness %d)", contrast / 100f, brightness);
+                case SHARPEN:  return String.format("sharpen (%.2f)", value / 100f);
+                case BLUR:     return "blur (radius " + value + ")";
+                case COMPRESS: return String.format("JPEG compression (quality %.2f)", value / 100f);
+                default:       return op.name().toLowerCase();
+            }
+        }
+    }
+
+    /** The chain and sources of one preview render, captured on the EDT. */
+    private static final class RenderParams {
+        final BufferedImage src, base;
+        final List<StepParams> steps;
+        final int selected;
+        final double scale;
+        final boolean detail;
+
+        RenderParams(BufferedImage src, BufferedImage base, List<StepParams> steps, int selected, double scale,
+                     boolean detail) {
+            this.src = src;
+            this.base = base;
+            this.steps = steps;
+            this.selected = selected;
+            this.scale = scale;
+            this.detail = detail;
+        }
+    }
 
-    // New counters for added features
-    private AtomicInteger histC = new AtomicInteger(1);
-    private AtomicInteger transC = new AtomicInteger(1);
-    private AtomicInteger edgeC = new AtomicInteger(1);
+    /** A rendered preview (as a viewer pyramid) plus chain statistics. */
+    private static final class Preview {
+        final ImageViewer.Pyramid pyramid;
+        final String stats;
+
+        Preview(ImageViewer.Pyramid pyramid, String stats) {
+            this.pyramid = pyramid;
+            this.stats = stats;
+        }
+    }
+
+    // histogram / transform / edge pages run their operations here (one per page at a time)
+    private final TaskRunner tasks = new TaskRunner(2);
+    private static final String TASKS_HISTO = "histogram", TASKS_TRANS = "transform", TASKS_EDGE = "edge";
+    private static final int TOOL_W = 700, TOOL_H = 360;
+
+    // last size asked for by Fit to Size
+    private long targetSizeKb = 200;
 
     private static final String SAVED_DIR = "saved";
 
-    // Saved-panel reference
-    private JPanel savedPanel;
+    // background writes into SAVED_DIR, numbered after the files already there
+    private static final int SAVE_QUEUE = 4;
+    private SaveService saves;
+    private JLabel saveStatus;
+    private String lastSaved;
+
+    // Saved-items gallery
+    private GalleryView gallery;
+    private int savedListing;   // bumped per reload, so an older listing never replaces a newer one
+    private final ThumbnailService thumbnails = new ThumbnailService(new File(SAVED_DIR, ".thumbs"), 140, 78,
+            64L << 20, Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
 
     public ImageProcessingGUI() throws Exception {
         new AESEncryption();
         Files.createDirectories(new File(SAVED_DIR).toPath());
+        saves = new SaveService(new File(SAVED_DIR), SAVE_QUEUE);
         buildUI();
+        saves.addListener(this::updateSaveStatus);
     }
 
     private void buildUI() {
@@ -87,8 +192,19 @@ public class ImageProcessingGUI {
         main.add(buildEdgePage(), PAGE_EDGE);
 
         JPanel wrapper = new RoundedPanel(main);
+        JPanel content = new JPanel();
+        content.setOpaque(false);
+        content.add(wrapper);
+
+        saveStatus = new JLabel(" ", SwingConstants.RIGHT);
+        saveStatus.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        saveStatus.setForeground(Color.GRAY);
+        saveStatus.setBorder(new EmptyBorder(0, 10, 4, 16));
+
         frame.setContentPane(new GradientPanel());
-        frame.add(wrapper);
+        frame.setLayout(new BorderLayout());
+        frame.add(content, BorderLayout.CENTER);
+        frame.add(saveStatus, BorderLayout.SOUTH);
 
         frame.setVisible(true);
     }
@@ -139,24 +255,88 @@ public class ImageProcessingGUI {
     }
 
     private void uploadImage() {
+        if (refuseWhileBusy()) return;
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle("Select an image");
 
         int result = chooser.showOpenDialog(frame);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            try {
-                File file = chooser.getSelectedFile();
-                originalImage = ImageUtils.loadImage(file);
-                if (originalImage == null) {
-                    JOptionPane.showMessageDialog(frame, "Invalid image file.");
-                    return;
+        if (result != JFileChooser.APPROVE_OPTION) return;
+
+        File file = chooser.getSelectedFile();
+        Dimension size;
+        try {
+            // dimensions from the header only, to pick a decode that fits in memory
+            size = ImageUtils.probeSize(file);
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(frame, "Failed to load image: " + ex.getMessage());
+            return;
+        }
+        if (size == null) {
+            JOptionPane.showMessageDialog(frame, "Invalid image file.");
+            return;
+        }
+
+        int step = decodeStep(size);
+        String note = step == 1 ? "" : String.format("%nThe image is %d x %d; it was loaded at 1/%d resolution (%d x %d) to fit in memory.",
+                size.width, size.height, step, (size.width + step - 1) / step, (size.height + step - 1) / step);
+
+        // decode in the background; the reader's progress feeds the monitor, Cancel aborts the read
+        TileScheduler.CancellationToken token = new TileScheduler.CancellationToken();
+        ProgressMonitor monitor = new ProgressMonitor(frame, "Loading " + file.getName(), null, 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        Timer poll = new Timer(100, e -> {
+            monitor.setProgress((int) (token.getProgress() * 100));
+            if (monitor.isCanceled()) token.cancel();
+        });
+        poll.start();
+        busy = true;
+
+        new SwingWorker<BufferedImage,Void>() {
+            protected BufferedImage doInBackground() throws Exception {
+                return TileScheduler.call(token, () -> ImageUtils.loadImage(file, null, step, null));
+            }
+
+            protected void done(){
+                poll.stop();
+                monitor.close();
+                busy = false;
+                try {
+                    BufferedImage img = get();
+                    if (img == null) {
+                        JOptionPane.showMessageDialog(frame, "Invalid image file.");
+                        return;
+                    }
+                    originalImage = img;
+                    imageGeneration++;
+                    // a new image starts a new edit history and an empty chain
+                    baseImage = null;
+                    history.clear();
+                    updateHistoryButtons();
+                    clearChain();
+                    JOptionPane.showMessageDialog(frame, "Image loaded successfully!" + note);
+                } catch (Exception ex) {
+                    Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+                    if (cause instanceof CancellationException) return;   // cancelled from the progress monitor
+                    JOptionPane.showMessageDialog(frame, "Failed to load image: " + cause.getMessage());
+                    cause.printStackTrace();
                 }
-                JOptionPane.showMessageDialog(frame, "Image loaded successfully!");
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Failed to load image: " + ex.getMessage());
-                ex.printStackTrace();
             }
-        }
+        }.execute();
+    }
+
+    /**
+     * Source subsampling step for a decode of size: 1 when the image and the
+     * working copies made from it (original, base, chain outputs) fit in the
+     * free heap, otherwise the smallest step that makes them fit.
+     */
+    private static int decodeStep(Dimension size) {
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        long budget = free / 4;
+        long bytes = (long) size.width * size.height * 4;
+        int step = 1;
+        while (bytes / ((long) step * step) > budget) step++;
+        return step;
     }
 
     // ---------- OPERATIONS PAGE ----------
@@ -253,15 +433,19 @@ public class ImageProcessingGUI {
         JPanel p = new JPanel(new BorderLayout());
         p.setOpaque(false);
 
-        previewLabel = new JLabel();
-        previewLabel.setHorizontalAlignment(SwingConstants.CENTER);
-
-        JScrollPane scroll = new JScrollPane(previewLabel);
-        scroll.setBorder(null);
-        scroll.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-        scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
+        viewer = new ImageViewer();
+        viewer.setPreferredSize(new Dimension(PREVIEW_W, PREVIEW_H));
+        viewer.setToolTipText("Wheel to zoom, drag to pan, double-click for fit / 100%");
+        // past the proxy's own resolution, switch previews to full resolution (and back when zoomed out)
+        viewer.addZoomListener(() -> {
+            boolean d = proxyImage != null && viewer.getZoom() > proxyScale();
+            if (d != detail) {
+                detail = d;
+                updatePreviewLive();
+            }
+        });
 
-        p.add(scroll, BorderLayout.CENTER);
+        p.add(viewer, BorderLayout.CENTER);
 
         JPanel sliderPanel = new JPanel();
         sliderPanel.setOpaque(false);
@@ -276,39 +460,93 @@ public class ImageProcessingGUI {
         brightnessPanel = sliderPane("Brightness", brightnessSlider);
         valuePanel = sliderPane("Value", valueSlider);
 
+        stepModel = new DefaultListModel<>();
+        stepList = new JList<>(stepModel);
+        stepList.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        stepList.setVisibleRowCount(1);
+        stepList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        stepList.addListSelectionListener(e -> {
+            int i = stepList.getSelectedIndex();
+            if (!loadingStep && !e.getValueIsAdjusting() && i >= 0 && i != selectedStep) selectStep(i);
+        });
+        RoundedButton removeStep = new RoundedButton("Remove Step");
+        removeStep.addActionListener(e -> removeSelectedStep());
+
+        JPanel chainRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 4));
+        chainRow.setOpaque(false);
+        chainRow.add(new JLabel("Steps:"));
+        chainRow.add(stepList);
+        chainRow.add(removeStep);
+
+        sliderPanel.add(chainRow);
         sliderPanel.add(contrastPanel);
         sliderPanel.add(brightnessPanel);
         sliderPanel.add(valuePanel);
 
+        // COMPRESS only: search the quality that meets a file size
+        RoundedButton fitSize = new RoundedButton("Fit to Size...");
+        fitSize.addActionListener(e -> fitQualityToSize());
+        fitSizePanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        fitSizePanel.setOpaque(false);
+        fitSizePanel.add(fitSize);
+        fitSizePanel.setVisible(false);
+        sliderPanel.add(fitSizePanel);
+
+        previewInfo = new JLabel(" ", SwingConstants.CENTER);
+        previewInfo.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        previewInfo.setAlignmentX(Component.CENTER_ALIGNMENT);
+        sliderPanel.add(previewInfo);
+
         p.add(sliderPanel, BorderLayout.NORTH);
 
         JPanel buttonRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
         buttonRow.setOpaque(false);
 
-        RoundedButton apply = new RoundedButton("Apply");
-        RoundedButton save = new RoundedButton("Save Copy");
+        undoBtn = new RoundedButton("Undo");
+        redoBtn = new RoundedButton("Redo");
+        applyBtn = new RoundedButton("Apply");
+        saveBtn = new RoundedButton("Save Copy");
         RoundedButton discard = new RoundedButton("Discard");
         RoundedButton back = new RoundedButton("Back");
 
-        buttonRow.add(apply);
-        buttonRow.add(save);
+        buttonRow.add(undoBtn);
+        buttonRow.add(redoBtn);
+        buttonRow.add(applyBtn);
+        buttonRow.add(saveBtn);
         buttonRow.add(discard);
         buttonRow.add(back);
 
-        apply.addActionListener(e -> {
-            if (previewImage != null) {
-                baseImage = ImageUtils.deepCopy(previewImage);
-                JOptionPane.showMessageDialog(frame, "Applied (original unchanged)");
-            }
+        undoBtn.addActionListener(e -> undoStep(true));
+        redoBtn.addActionListener(e -> undoStep(false));
+        updateHistoryButtons();
+        applyBtn.addActionListener(e -> applyOperation());
+        saveBtn.addActionListener(e -> saveOperationImage());
+        discard.addActionListener(e -> {
+            clearChain();
+            layout.show(main, PAGE_OP);
         });
-
-        save.addActionListener(e -> saveOperationImage());
-        discard.addActionListener(e -> layout.show(main, PAGE_OP));
+        // keeps the chain: the next operation picked is added as a step
         back.addActionListener(e -> layout.show(main, PAGE_OP));
 
-        p.add(buttonRow, BorderLayout.SOUTH);
+        renderProgress = new JProgressBar();
+        renderProgress.setIndeterminate(true);
+        renderProgress.setStringPainted(true);
+        renderProgress.setVisible(false);
+
+        previewMetrics = new JLabel(" ", SwingConstants.CENTER);
+        previewMetrics.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        previewMetrics.setForeground(Color.GRAY);
 
-        ChangeListener real = e -> updatePreviewLive();
+        JPanel south = new JPanel(new BorderLayout());
+        south.setOpaque(false);
+        south.setBorder(new EmptyBorder(0, 20, 0, 20));
+        south.add(renderProgress, BorderLayout.NORTH);
+        south.add(buttonRow, BorderLayout.CENTER);
+        south.add(previewMetrics, BorderLayout.SOUTH);
+
+        p.add(south, BorderLayout.SOUTH);
+
+        ChangeListener real = e -> updateSelectedStep();
         contrastSlider.addChangeListener(real);
         brightnessSlider.addChangeListener(real);
         valueSlider.addChangeListener(real);
@@ -364,11 +602,12 @@ public class ImageProcessingGUI {
         JLabel title = new JLabel("Saved Items", SwingConstants.CENTER);
         title.setFont(new Font("Segoe UI", Font.BOLD, 22));
 
-        savedPanel = new JPanel(new WrapLayout(FlowLayout.LEFT));
-        savedPanel.setOpaque(false);
+        gallery = new GalleryView(thumbnails, this::openSavedPreview);
 
-        JScrollPane sp = new JScrollPane(savedPanel);
+        JScrollPane sp = new JScrollPane(gallery);
         sp.setBorder(null);
+        sp.setOpaque(false);
+        sp.getViewport().setOpaque(false);
 
         RoundedButton back = new RoundedButton("Back");
         back.addActionListener(e -> layout.show(main, PAGE_OP));
@@ -380,50 +619,31 @@ public class ImageProcessingGUI {
         return p;
     }
 
+    /** Lists SAVED_DIR in the background (a stat per file) and shows the result in the gallery. */
     private void reloadSavedPage() {
-        savedPanel.removeAll();
-
-        File dir = new File(SAVED_DIR);
-        File[] list = dir.listFiles();
-        if (list == null) return;
-
-        for (File f : list) {
-            JPanel tile = new JPanel(new BorderLayout());
-            tile.setOpaque(true);
-            tile.setBackground(Color.WHITE);
-            tile.setBorder(new EmptyBorder(6,6,6,6));
-            tile.setPreferredSize(new Dimension(160,120));
-
-            JLabel name = new JLabel(f.getName(), SwingConstants.CENTER);
-            name.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        int listing = ++savedListing;
+        new SwingWorker<List<File>,Void>() {
+            protected List<File> doInBackground() {
+                File dir = new File(SAVED_DIR);
+                File[] list = dir.listFiles(f -> f.isFile() && !f.getName().startsWith("."));
+                if (list == null) list = new File[0];
+
+                Arrays.sort(list, Comparator.comparing(File::getName));
+                return Arrays.asList(list);
+            }
 
-            if (f.getName().endsWith(".enc")) {
-                tile.add(new JLabel(UIManager.getIcon("FileView.fileIcon"), JLabel.CENTER), BorderLayout.CENTER);
-            } else {
+            protected void done(){
+                if (listing != savedListing) return;
                 try {
-                    BufferedImage img = ImageUtils.loadImage(f);
-                    ImageIcon ic = new ImageIcon(ImageUtils.getScaledCopy(img,140,78));
-                    JLabel thumb = new JLabel(ic, JLabel.CENTER);
-                    tile.add(thumb, BorderLayout.CENTER);
-
-                    // clickable preview
-                    tile.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-                    tile.addMouseListener(new MouseAdapter() {
-                        public void mouseClicked(MouseEvent e) {
-                            openSavedPreview(f);
-                        }
-                    });
-
-                } catch (Exception ex) { ex.printStackTrace(); }
+                    List<File> files = get();
+                    gallery.setFiles(files);
+                    // thumbnails of deleted or overwritten files would otherwise stay on disk forever
+                    thumbnails.prune(files);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
             }
-
-            tile.add(name, BorderLayout.SOUTH);
-
-            savedPanel.add(tile);
-        }
-
-        savedPanel.revalidate();
-        savedPanel.repaint();
+        }.execute();
     }
 
     private void openSavedPreview(File file) {
@@ -432,15 +652,27 @@ public class ImageProcessingGUI {
         d.setLocationRelativeTo(frame);
 
         JLabel lbl = new JLabel("", SwingConstants.CENTER);
-        try {
-            if (file.getName().endsWith(".enc")) {
-                lbl.setText("Encrypted file - cannot preview");
-            } else {
-                BufferedImage img = ImageUtils.loadImage(file);
-                lbl.setIcon(new ImageIcon(ImageUtils.getScaledCopy(img, 560, 420)));
-            }
-        } catch (Exception ex) {
-            lbl.setText("Failed to load");
+        if (file.getName().endsWith(".enc")) {
+            lbl.setText("Encrypted file - cannot preview");
+        } else {
+            // subsampled decode off the EDT; started before the modal dialog blocks
+            lbl.setText("Loading...");
+            new SwingWorker<BufferedImage,Void>() {
+                protected BufferedImage doInBackground() throws Exception {
+                    BufferedImage img = ImageUtils.loadImage(file, 2 * 560, 2 * 420);
+                    return img == null ? null : ImageUtils.getScaledCopy(img, 560, 420);
+                }
+
+                protected void done(){
+                    try {
+                        BufferedImage img = get();
+                        lbl.setText(img == null ? "Failed to load" : "");
+                        if (img != null) lbl.setIcon(new ImageIcon(img));
+                    } catch (Exception ex) {
+                        lbl.setText("Failed to load");
+                    }
+                }
+            }.execute();
         }
 
         d.add(lbl);
@@ -478,9 +710,11 @@ public class ImageProcessingGUI {
         RoundedButton stretch = new RoundedButton("Stretch");
         RoundedButton save = new RoundedButton("Save Result");
         RoundedButton back = new RoundedButton("Back");
+        JCheckBox perChannel = new JCheckBox("Per channel");
+        perChannel.setOpaque(false);
 
-        btns.add(gen); btns.add(eq); btns.add(stretch); btns.add(save); btns.add(back);
-        center.add(btns, BorderLayout.SOUTH);
+        btns.add(gen); btns.add(eq); btns.add(stretch); btns.add(perChannel); btns.add(save); btns.add(back);
+        center.add(toolSouth(TASKS_HISTO, btns), BorderLayout.SOUTH);
 
         p.add(center, BorderLayout.CENTER);
 
@@ -488,44 +722,52 @@ public class ImageProcessingGUI {
         final BufferedImage[] lastResult = new BufferedImage[1];
         final BufferedImage[] lastHist = new BufferedImage[1];
 
-        gen.addActionListener(a -> {
-            try {
-                lastHist[0] = HistogramProcessor.generateHistogramImage(originalImage);
-                histPreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(lastHist[0], 700, 360)));
-                lastResult[0] = null;
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Histogram failed: "+ex.getMessage()); }
-        });
+        // results: {image, histogram image, preview}
+        gen.addActionListener(a -> runTool(TASKS_HISTO, "histogram", "Histogram", src -> {
+            BufferedImage hist = HistogramProcessor.generateHistogramImage(src);
+            return new BufferedImage[]{ null, hist, ImageUtils.getScaledCopy(hist, TOOL_W, TOOL_H) };
+        }, r -> {
+            lastResult[0] = r[0];
+            lastHist[0] = r[1];
+            histPreview.setIcon(new ImageIcon(r[2]));
+        }));
 
         eq.addActionListener(a -> {
-            try {
-                lastResult[0] = HistogramProcessor.equalize(originalImage);
-                histPreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(lastResult[0], 700, 360)));
-                lastHist[0] = HistogramProcessor.generateHistogramImage(lastResult[0]);
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Equalize failed: "+ex.getMessage()); }
+            HistogramProcessor.Mode mode = histogramMode(perChannel);
+            runTool(TASKS_HISTO, "equalize:" + mode, "Equalize", src -> {
+                HistogramProcessor.Histogram after = new HistogramProcessor.Histogram();
+                BufferedImage result = HistogramProcessor.equalize(src, mode, after);
+                return new BufferedImage[]{ result, HistogramProcessor.generateHistogramImage(after),
+                        ImageUtils.getScaledCopy(result, TOOL_W, TOOL_H) };
+            }, r -> {
+                lastResult[0] = r[0];
+                lastHist[0] = r[1];
+                histPreview.setIcon(new ImageIcon(r[2]));
+            });
         });
 
         stretch.addActionListener(a -> {
-            try {
-                lastResult[0] = HistogramProcessor.stretch(originalImage);
-                histPreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(lastResult[0], 700, 360)));
-                lastHist[0] = HistogramProcessor.generateHistogramImage(lastResult[0]);
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Stretch failed: "+ex.getMessage()); }
+            HistogramProcessor.Mode mode = histogramMode(perChannel);
+            runTool(TASKS_HISTO, "stretch:" + mode, "Stretch", src -> {
+                HistogramProcessor.Histogram after = new HistogramProcessor.Histogram();
+                BufferedImage result = HistogramProcessor.stretch(src, mode, after);
+                return new BufferedImage[]{ result, HistogramProcessor.generateHistogramImage(after),
+                        ImageUtils.getScaledCopy(result, TOOL_W, TOOL_H) };
+            }, r -> {
+                lastResult[0] = r[0];
+                lastHist[0] = r[1];
+                histPreview.setIcon(new ImageIcon(r[2]));
+            });
         });
 
         save.addActionListener(a -> {
             try {
                 if (lastResult[0] == null && lastHist[0] == null) { JOptionPane.showMessageDialog(frame,"Nothing to save. Run an operation first."); return; }
-                if (lastResult[0] != null) {
-                    String name = String.format("h_result_%03d.png", histC.getAndIncrement());
-                    File out = new File(SAVED_DIR, name);
-                    ImageUtils.saveImage(lastResult[0], out, "png", 1f);
-                    JOptionPane.showMessageDialog(frame,"Saved: "+name);
-                }
-                if (lastHist[0] != null) {
-                    String hname = String.format("h_hist_%03d.png", histC.getAndIncrement());
-                    File hout = new File(SAVED_DIR, hname);
-                    ImageUtils.saveImage(lastHist[0], hout, "png", 1f);
-                }
+                // the result and its histogram are saved together or not at all
+                List<SaveService.Request> files = new ArrayList<>();
+                if (lastResult[0] != null) files.add(SaveService.Request.png("h_result", lastResult[0]));
+                if (lastHist[0] != null) files.add(SaveService.Request.png("h_hist", lastHist[0]));
+                queueSaves(files, null, null);
             } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Save failed: "+ex.getMessage()); }
         });
 
@@ -534,6 +776,10 @@ public class ImageProcessingGUI {
         return p;
     }
 
+    private HistogramProcessor.Mode histogramMode(JCheckBox perChannel) {
+        return perChannel.isSelected() ? HistogramProcessor.Mode.PER_CHANNEL : HistogramProcessor.Mode.LUMINANCE;
+    }
+
     // ---------- TRANSFORM PAGE ----------
     private JPanel buildTransformPage() {
         JPanel p = new JPanel(new BorderLayout());
@@ -547,7 +793,7 @@ public class ImageProcessingGUI {
         JPanel center = new JPanel(new BorderLayout());
         center.setOpaque(false);
 
-        JLabel info = new JLabel("Preview of transform magnitudes (downsampled). Save result.", SwingConstants.CENTER);
+        JLabel info = new JLabel("Preview of transform magnitudes (full resolution). Save result.", SwingConstants.CENTER);
         info.setBorder(new EmptyBorder(6,6,6,6));
         center.add(info, BorderLayout.NORTH);
 
@@ -561,44 +807,35 @@ public class ImageProcessingGUI {
         btns.setOpaque(false);
         RoundedButton dft = new RoundedButton("DFT (magnitude)");
         RoundedButton dct = new RoundedButton("DCT (magnitude)");
+        RoundedButton dct8 = new RoundedButton("DCT (8x8 blocks)");
         RoundedButton det = new RoundedButton("DET (3x3)");
         RoundedButton save = new RoundedButton("Save Result");
         RoundedButton back = new RoundedButton("Back");
 
-        btns.add(dft); btns.add(dct); btns.add(det); btns.add(save); btns.add(back);
-        center.add(btns, BorderLayout.SOUTH);
+        btns.add(dft); btns.add(dct); btns.add(dct8); btns.add(det); btns.add(save); btns.add(back);
+        center.add(toolSouth(TASKS_TRANS, btns), BorderLayout.SOUTH);
         p.add(center, BorderLayout.CENTER);
 
         final BufferedImage[] last = new BufferedImage[1];
-
-        dft.addActionListener(a -> {
-            try {
-                last[0] = TransformProcessor.dftMagnitude(originalImage);
-                transPreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(last[0], 700, 360)));
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"DFT failed"); }
-        });
-
-        dct.addActionListener(a -> {
-            try {
-                last[0] = TransformProcessor.dctMagnitude(originalImage);
-                transPreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(last[0], 700, 360)));
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"DCT failed"); }
-        });
-
-        det.addActionListener(a -> {
-            try {
-                last[0] = TransformProcessor.determinantResponse(originalImage);
-                transPreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(last[0], 700, 360)));
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"DET failed"); }
-        });
+        // results: {image, preview}
+        Consumer<BufferedImage[]> show = r -> {
+            last[0] = r[0];
+            transPreview.setIcon(new ImageIcon(r[1]));
+        };
+
+        dft.addActionListener(a -> runTool(TASKS_TRANS, "dft", "DFT",
+                src -> withPreview(TransformProcessor.dftMagnitude(src)), show));
+        dct.addActionListener(a -> runTool(TASKS_TRANS, "dct", "DCT",
+                src -> withPreview(TransformProcessor.dctMagnitude(src)), show));
+        dct8.addActionListener(a -> runTool(TASKS_TRANS, "dct8", "DCT 8x8",
+                src -> withPreview(TransformProcessor.dctBlockMagnitude(src)), show));
+        det.addActionListener(a -> runTool(TASKS_TRANS, "det", "DET",
+                src -> withPreview(TransformProcessor.determinantResponse(src)), show));
 
         save.addActionListener(a -> {
             try {
                 if (last[0] == null) { JOptionPane.showMessageDialog(frame,"Run an operation first."); return; }
-                String name = String.format("t_result_%03d.png", transC.getAndIncrement());
-                File out = new File(SAVED_DIR, name);
-                ImageUtils.saveImage(last[0], out, "png", 1f);
-                JOptionPane.showMessageDialog(frame, "Saved: " + name);
+                savePNG("t_result", last[0]);
             } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Save failed"); }
         });
 
@@ -633,37 +870,50 @@ public class ImageProcessingGUI {
         JPanel btns = new JPanel(new FlowLayout(FlowLayout.CENTER, 12, 10));
         btns.setOpaque(false);
         RoundedButton sobel = new RoundedButton("Sobel");
-        RoundedButton canny = new RoundedButton("Canny (approx)");
+        RoundedButton canny = new RoundedButton("Canny");
         RoundedButton save = new RoundedButton("Save Result");
         RoundedButton back = new RoundedButton("Back");
 
-        btns.add(sobel); btns.add(canny); btns.add(save); btns.add(back);
-        center.add(btns, BorderLayout.SOUTH);
+        // Canny thresholds (Sobel gradient units); "Auto" derives them from the median
+        JCheckBox autoThresh = new JCheckBox("Auto", true);
+        autoThresh.setOpaque(false);
+        JSpinner lowSpin = new JSpinner(new SpinnerNumberModel(40, 0, 1500, 5));
+        JSpinner highSpin = new JSpinner(new SpinnerNumberModel(100, 0, 1500, 5));
+        lowSpin.setEnabled(false);
+        highSpin.setEnabled(false);
+        autoThresh.addActionListener(e -> {
+            lowSpin.setEnabled(!autoThresh.isSelected());
+            highSpin.setEnabled(!autoThresh.isSelected());
+        });
+
+        btns.add(sobel); btns.add(canny);
+        btns.add(autoThresh); btns.add(new JLabel("Low")); btns.add(lowSpin); btns.add(new JLabel("High")); btns.add(highSpin);
+        btns.add(save); btns.add(back);
+        center.add(toolSouth(TASKS_EDGE, btns), BorderLayout.SOUTH);
         p.add(center, BorderLayout.CENTER);
 
         final BufferedImage[] last = new BufferedImage[1];
+        // results: {image, preview}
+        Consumer<BufferedImage[]> show = r -> {
+            last[0] = r[0];
+            edgePreview.setIcon(new ImageIcon(r[1]));
+        };
 
-        sobel.addActionListener(a -> {
-            try {
-                last[0] = EdgeDetector.sobel(originalImage);
-                edgePreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(last[0], 700, 360)));
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Sobel failed"); }
-        });
+        sobel.addActionListener(a -> runTool(TASKS_EDGE, "sobel", "Sobel",
+                src -> withPreview(EdgeDetector.sobel(src)), show));
 
         canny.addActionListener(a -> {
-            try {
-                last[0] = EdgeDetector.cannyApprox(originalImage);
-                edgePreview.setIcon(new ImageIcon(ImageUtils.getScaledCopy(last[0], 700, 360)));
-            } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Canny failed"); }
+            // thresholds are part of the key: a click with new values replaces the running Canny
+            double low = autoThresh.isSelected() ? -1 : ((Number) lowSpin.getValue()).doubleValue();
+            double high = autoThresh.isSelected() ? -1 : ((Number) highSpin.getValue()).doubleValue();
+            runTool(TASKS_EDGE, "canny:" + low + ":" + high, "Canny",
+                    src -> withPreview(EdgeDetector.canny(src, 1.4, low, high)), show);
         });
 
         save.addActionListener(a -> {
             try {
                 if (last[0] == null) { JOptionPane.showMessageDialog(frame,"Run an operation first."); return; }
-                String name = String.format("edge_%03d.png", edgeC.getAndIncrement());
-                File out = new File(SAVED_DIR, name);
-                ImageUtils.saveImage(last[0], out, "png", 1f);
-                JOptionPane.showMessageDialog(frame, "Saved: " + name);
+                savePNG("edge", last[0]);
             } catch (Exception ex) { ex.printStackTrace(); JOptionPane.showMessageDialog(frame,"Save failed"); }
         });
 
@@ -671,138 +921,517 @@ public class ImageProcessingGUI {
         return p;
     }
 
+    // ---------- TOOL PAGE TASKS ----------
+
+    /** Background step of a tool page, given the image it runs on. */
+    private interface ToolWork {
+        BufferedImage[] run(BufferedImage src) throws Exception;
+    }
+
+    /**
+     * Runs a histogram / transform / edge operation on originalImage through
+     * the task runner. A click on the operation already running in the page
+     * is ignored; a different one replaces it.
+     */
+    private void runTool(String group, String key, String label, ToolWork work, Consumer<BufferedImage[]> onDone) {
+        if (originalImage == null) {
+            JOptionPane.showMessageDialog(frame, "Upload first.");
+            return;
+        }
+        BufferedImage src = originalImage;
+        // the same operation on another image is a different task
+        String imageKey = key + "@" + imageGeneration;
+        tasks.submit(group, imageKey, label, () -> work.run(src), onDone, ex -> {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(frame, label + " failed: " + ex.getMessage());
+        });
+    }
+
+    /** {image, display-size copy}, so the scaling also happens off the EDT. */
+    private static BufferedImage[] withPreview(BufferedImage img) {
+        return new BufferedImage[]{ img, ImageUtils.getScaledCopy(img, TOOL_W, TOOL_H) };
+    }
+
+    /** Progress bar and Cancel button of group's running task, above the page's buttons. */
+    private JPanel toolSouth(String group, JPanel buttons) {
+        JProgressBar bar = new JProgressBar(0, 1000);
+        bar.setStringPainted(true);
+        RoundedButton cancel = new RoundedButton("Cancel", 12);
+        cancel.addActionListener(e -> tasks.cancel(group));
+
+        JPanel progressRow = new JPanel(new BorderLayout(10, 0));
+        progressRow.setOpaque(false);
+        progressRow.setBorder(new EmptyBorder(0, 20, 0, 20));
+        progressRow.add(bar, BorderLayout.CENTER);
+        progressRow.add(cancel, BorderLayout.EAST);
+        progressRow.setVisible(false);
+
+        // progress is polled while the group is busy
+        Runnable refresh = () -> {
+            double f = Math.max(0, tasks.getProgress(group));
+            bar.setValue((int) Math.round(f * 1000));
+            bar.setString(String.format("%s %.0f%%", tasks.getLabel(group), f * 100));
+        };
+        Timer poll = new Timer(100, e -> refresh.run());
+        tasks.addListener(() -> {
+            boolean busy = tasks.isRunning(group);
+            progressRow.setVisible(busy);
+            if (busy) {
+                refresh.run();
+                poll.start();
+            } else {
+                poll.stop();
+            }
+        });
+
+        JPanel south = new JPanel(new BorderLayout());
+        south.setOpaque(false);
+        south.add(progressRow, BorderLayout.NORTH);
+        south.add(buttons, BorderLayout.CENTER);
+        return south;
+    }
+
     // ---------- PROCESS OPERATIONS (existing) ----------
     private void startOperation(Operation op) {
         if (originalImage == null) {
             JOptionPane.showMessageDialog(frame,"Upload first.");
             return;
         }
-        currentOp = op;
+        // applied steps carry over between operations until a new image is loaded
+        if (baseImage == null) showBase(ImageUtils.deepCopy(originalImage));
+
+        // each operation picked becomes a new step at the end of the chain
+        chain.add(StepParams.defaults(op));
+        selectStep(chain.size() - 1);
+        layout.show(main, PAGE_PROCESS);
+    }
+
+    /** Shows the sliders of step index (none for -1) with its values, then refreshes the preview. */
+    private void selectStep(int index) {
+        selectedStep = index;
+        loadingStep = true;
+        previewInfo.setText(" ");
 
         contrastPanel.setVisible(false);
         brightnessPanel.setVisible(false);
         valuePanel.setVisible(false);
+        fitSizePanel.setVisible(false);
 
-        baseImage = ImageUtils.deepCopy(originalImage);
-        previewImage = ImageUtils.deepCopy(originalImage);
-
-        switch(op){
+        StepParams step = index >= 0 ? chain.get(index) : null;
+        switch(step == null ? Operation.NONE : step.op){
             case ENHANCE:
                 contrastPanel.setVisible(true);
                 brightnessPanel.setVisible(true);
+                contrastSlider.setValue(step.contrast);
+                brightnessSlider.setValue(step.brightness);
                 break;
             case SHARPEN:
                 valuePanel.setVisible(true);
                 ((JLabel)valuePanel.getComponent(0)).setText("Sharpness");
                 valueSlider.setMinimum(50);
                 valueSlider.setMaximum(300);
-                valueSlider.setValue(100);
+                valueSlider.setValue(step.value);
                 break;
             case BLUR:
                 valuePanel.setVisible(true);
                 ((JLabel)valuePanel.getComponent(0)).setText("Blur Radius");
                 valueSlider.setMinimum(0);
                 valueSlider.setMaximum(50);
-                valueSlider.setValue(0);
+                valueSlider.setValue(step.value);
                 break;
             case COMPRESS:
                 valuePanel.setVisible(true);
+                fitSizePanel.setVisible(true);
                 ((JLabel)valuePanel.getComponent(0)).setText("JPEG Quality");
-                valueSlider.setMinimum(10);
+                valueSlider.setMinimum(1);
                 valueSlider.setMaximum(100);
-                valueSlider.setValue(80);
+                valueSlider.setValue(step.value);
                 break;
             default:
                 break;
         }
 
-        updatePreview();
-        layout.show(main, PAGE_PROCESS);
+        loadingStep = false;
+        refreshStepList();
+        updatePreviewLive();
+    }
+
+    /** Slider moved: replaces the selected step's values; only it and the steps after it re-render. */
+    private void updateSelectedStep() {
+        if (loadingStep || selectedStep < 0) return;
+        StepParams s = chain.get(selectedStep);
+        chain.set(selectedStep, new StepParams(s.op, contrastSlider.getValue(), brightnessSlider.getValue(), valueSlider.getValue()));
+        refreshStepList();
+        updatePreviewLive();
+    }
+
+    /**
+     * Asks for a file size and sets the selected COMPRESS step to the highest
+     * quality whose full-resolution JPEG fits it (ImageCompressor.encodeToSize).
+     */
+    private void fitQualityToSize() {
+        if (baseImage == null || selectedStep < 0 || chain.get(selectedStep).op != Operation.COMPRESS) return;
+        String answer = JOptionPane.showInputDialog(frame, "Maximum file size in KB:", targetSizeKb);
+        if (answer == null) return;
+        long kb;
+        try {
+            kb = Long.parseLong(answer.trim());
+            if (kb <= 0) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(frame, "Enter a size in KB, e.g. 250");
+            return;
+        }
+        targetSizeKb = kb;
+        cancelPreviews();
+
+        int index = selectedStep;
+        StepParams step = chain.get(index);
+        List<StepParams> steps = new ArrayList<>(chain);
+        BufferedImage base = baseImage;
+        ImageCompressor.SizeResult[] found = new ImageCompressor.SizeResult[1];
+        runBusy("Searching JPEG quality for " + kb + " KB",
+                () -> {
+                    BufferedImage input = fullChain.evaluate(base, nodes(steps, index, 1.0));
+                    found[0] = ImageCompressor.encodeToSize(input, kb * 1024);
+                    return input;
+                },
+                input -> {
+                    ImageCompressor.SizeResult r = found[0];
+                    // the chain may have been edited meanwhile; only update the step that was searched
+                    if (index < chain.size() && chain.get(index) == step) {
+                        chain.set(index, new StepParams(step.op, step.contrast, step.brightness, Math.round(r.quality * 100)));
+                        selectStep(index);
+                    }
+                    JOptionPane.showMessageDialog(frame, r.fits
+                            ? String.format("Quality %.2f gives %,d bytes (%d encodes).", r.quality, r.size(), r.encodes)
+                            : String.format("Even quality %.2f needs %,d bytes (%d encodes).", r.quality, r.size(), r.encodes));
+                });
+    }
+
+    private void removeSelectedStep() {
+        if (selectedStep < 0) return;
+        chain.remove(selectedStep);
+        selectStep(Math.min(selectedStep, chain.size() - 1));
+    }
+
+    private void clearChain() {
+        cancelPreviews();
+        chain.clear();
+        selectedStep = -1;
+        previewChain.clear();
+        fullChain.clear();
+        if (stepModel != null) refreshStepList();
+    }
+
+    private void refreshStepList() {
+        loadingStep = true;
+        while (stepModel.size() > chain.size()) stepModel.remove(stepModel.size() - 1);
+        for (int i = 0; i < chain.size(); i++) {
+            String label = (i + 1) + ". " + chain.get(i).describe();
+            if (i >= stepModel.size()) stepModel.addElement(label);
+            else if (!label.equals(stepModel.get(i))) stepModel.set(i, label);
+        }
+        if (selectedStep < 0) stepList.clearSelection();
+        else stepList.setSelectedIndex(selectedStep);
+        loadingStep = false;
     }
 
-    private void updatePreview(){
-        previewLabel.setText(null);
-        previewLabel.setIcon(new ImageIcon(ImageUtils.getScaledCopy(previewImage, 820, 500)));
+    /** Size of proxyImage relative to baseImage. */
+    private double proxyScale() {
+        return (double) proxyImage.getWidth() / baseImage.getWidth();
     }
 
     private void updatePreviewLive() {
-        if (currentOp == Operation.NONE || baseImage == null) return;
+        if (proxyImage == null) return;
+
+        // newest chain state wins; an older render still running is cancelled
+        previewScheduler.submit(new RenderParams(proxyImage, baseImage, new ArrayList<>(chain), selectedStep,
+                proxyScale(), detail));
+        previewMetrics.setText(previewScheduler.getMetricsText());
+
+        // the size of a compress step is measured once the sliders rest
+        sizeScheduler.cancel();
+        StepParams sel = selectedStep >= 0 ? chain.get(selectedStep) : null;
+        if (sel != null && sel.op == Operation.COMPRESS) {
+            previewInfo.setText("Quality " + sel.value + ": measuring size ...");
+            sizeSettle.setRepeats(false);
+            sizeSettle.restart();
+        } else {
+            sizeSettle.stop();
+            previewInfo.setText(" ");
+        }
+    }
+
+    // before work that replaces or reads baseImage at full resolution
+    private void cancelPreviews() {
+        previewScheduler.cancel();
+        sizeSettle.stop();
+        sizeScheduler.cancel();
+    }
+
+    private void submitSizeMeasure() {
+        if (proxyImage == null || selectedStep < 0) return;
+        sizeScheduler.submit(new RenderParams(proxyImage, baseImage, new ArrayList<>(chain), selectedStep,
+                proxyScale(), detail));
+    }
+
+    /**
+     * Applies op to src. scale is src's size relative to the full-resolution
+     * image, used to shrink kernel radii so a proxy preview matches the final
+     * result (sharpen's 3x3 kernel and the per-pixel operations don't scale).
+     */
+    private static BufferedImage render(BufferedImage src, Operation op, int contrast, int brightness, int value,
+                                        double scale) throws Exception {
+        switch(op){
+            case ENHANCE:
+                return ImageEnhancer.enhance(src, contrast / 100f, brightness);
+            case SHARPEN:
+                return ImageSharpener.sharpen(src, value / 100f);
+            case BLUR:
+                return ImageBlurrer.blurRadius(src, (int) Math.round(value * scale));
+            case COMPRESS:
+                return ImageCompressor.roundTripJPG(src, value / 100f);
+            default:
+                return src;
+        }
+    }
+
+    /** Chain nodes for the first count steps, with kernel radii scaled by scale. */
+    private static List<OperationChain.Node> nodes(List<StepParams> steps, int count, double scale) {
+        List<OperationChain.Node> nodes = new ArrayList<>();
+        for (StepParams s : steps.subList(0, count)) {
+            nodes.add(new OperationChain.Node(s.describe(),
+                    src -> render(src, s.op, s.contrast, s.brightness, s.value, scale)));
+        }
+        return nodes;
+    }
+
+    private static String describe(List<StepParams> steps) {
+        StringBuilder sb = new StringBuilder();
+        for (StepParams s : steps) sb.append(sb.length() == 0 ? "" : " -> ").append(s.describe());
+        return sb.toString();
+    }
+
+    /**
+     * Render of the chain for the live preview, on the proxy or (zoomed in
+     * past it) at full resolution; unchanged leading steps come from the cache.
+     * When the selected step is COMPRESS, also the exact JPEG size of that
+     * step at full resolution.
+     */
+    private Preview renderPreview(RenderParams p) throws Exception {
+        OperationChain c = p.detail ? fullChain : previewChain;
+        double scale = p.detail ? 1.0 : p.scale;
+        BufferedImage img = c.evaluate(p.detail ? p.base : p.src, nodes(p.steps, p.steps.size(), scale));
+        String stats = c.getStatsText();
+        return new Preview(new ImageViewer.Pyramid(img, scale), stats);
+    }
+
+    /** Info line with the exact JPEG size of the selected compress step; runs on the size scheduler. */
+    private String measureCompressed(RenderParams p) throws Exception {
+        StepParams sel = p.steps.get(p.selected);
+        // the step's full-resolution input, cached until an earlier step changes
+        BufferedImage input = fullChain.evaluate(p.base, nodes(p.steps, p.selected, 1.0));
+        TileScheduler.checkCancelled();
+        int size = ImageCompressor.encodedSize(input, sel.value / 100f);
+        long raw = ImageCompressor.rawSize(input);
+        return String.format("Quality %d: %s  (%.1f:1, %.2f bits/pixel)",
+                sel.value, formatBytes(size), (double) raw / size,
+                size * 8.0 / ((long) input.getWidth() * input.getHeight()));
+    }
+
+    private static String formatBytes(long n) {
+        if (n < 1024) return n + " B";
+        if (n < 1024 * 1024) return String.format("%.1f KB", n / 1024.0);
+        return String.format("%.2f MB", n / (1024.0 * 1024));
+    }
+
+    /** Background step of a busy task; may throw. */
+    private interface Work {
+        BufferedImage run() throws Exception;
+    }
+
+    /**
+     * Runs work in the background with the progress bar shown and the
+     * Apply / Save / Undo / Redo buttons disabled, then hands the result to
+     * onDone on the EDT. Refused while another busy task or an upload runs.
+     */
+    private void runBusy(String message, Work work, Consumer<BufferedImage> onDone) {
+        if (refuseWhileBusy()) return;
+        busy = true;
+        applyBtn.setEnabled(false);
+        saveBtn.setEnabled(false);
+        undoBtn.setEnabled(false);
+        redoBtn.setEnabled(false);
+        renderProgress.setString(message);
+        renderProgress.setVisible(true);
 
         new SwingWorker<BufferedImage,Void>() {
-            protected BufferedImage doInBackground() {
-                BufferedImage temp = ImageUtils.deepCopy(baseImage);
-                try {
-                    switch(currentOp){
-                        case ENHANCE:
-                            float c = contrastSlider.getValue() / 100f;
-                            int b = brightnessSlider.getValue();
-                            temp = ImageEnhancer.enhance(temp, c, b);
-                            break;
-                        case SHARPEN:
-                            float s = valueSlider.getValue() / 100f;
-                            temp = ImageSharpener.sharpen(temp, s);
-                            break;
-                        case BLUR:
-                            int r = valueSlider.getValue();
-                            temp = ImageBlurrer.blurRadius(temp, r);
-                            break;
-                        case COMPRESS:
-                            int q = valueSlider.getValue();
-                            File out = new File("temp.jpg");
-                            ImageCompressor.saveCompressedJPG(temp, out, q / 100f);
-                            temp = ImageUtils.loadImage(out);
-                            break;
-                        default:
-                            break;
-                    }
-                } catch (Exception e){ e.printStackTrace(); }
-                return temp;
+            protected BufferedImage doInBackground() throws Exception {
+                return work.run();
             }
 
             protected void done(){
-                try{
-                    previewImage = get();
-                    updatePreview();
-                } catch(Exception ignore){}
+                busy = false;
+                renderProgress.setVisible(false);
+                applyBtn.setEnabled(true);
+                saveBtn.setEnabled(true);
+                updateHistoryButtons();
+                try {
+                    onDone.accept(get());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, message + " failed: " + e.getMessage());
+                }
             }
         }.execute();
     }
 
+    // true (after telling the user) while a runBusy task or an upload is running
+    private boolean refuseWhileBusy() {
+        if (!busy) return false;
+        JOptionPane.showMessageDialog(frame, "Wait until the current operation finishes.");
+        return true;
+    }
+
+    /** Bakes the chain into baseImage as one history step and starts an empty chain. */
+    private void applyOperation() {
+        if (baseImage == null || chain.isEmpty()) return;
+        cancelPreviews();
+
+        List<StepParams> steps = new ArrayList<>(chain);
+        BufferedImage before = baseImage;
+        String label = describe(steps);
+        runBusy("Applying " + label + " at full resolution (" + before.getWidth() + " x " + before.getHeight() + ")",
+                () -> {
+                    BufferedImage result = fullChain.evaluate(before, nodes(steps, steps.size(), 1.0));
+                    history.record(label, before, result);
+                    return result;
+                },
+                result -> {
+                    // another image was loaded meanwhile: the result belongs to the old one
+                    if (baseImage != before) return;
+                    clearChain();
+                    showBase(result);
+                    JOptionPane.showMessageDialog(frame, "Applied (original unchanged)");
+                });
+    }
+
+    /** Reverts (undo) or re-applies (redo) one history step of baseImage. */
+    private void undoStep(boolean undo) {
+        if (baseImage == null || !(undo ? history.canUndo() : history.canRedo())) return;
+        cancelPreviews();
+
+        BufferedImage current = baseImage;
+        String label = undo ? history.undoLabel() : history.redoLabel();
+        runBusy((undo ? "Undoing " : "Redoing ") + label,
+                () -> {
+                    // undo/redo modify current in place; a pending save may still be reading it
+                    saves.awaitIdle();
+                    return undo ? history.undo(current) : history.redo(current);
+                },
+                this::showBase);
+    }
+
+    /** Makes img the new baseImage; cached step outputs are dropped and the chain re-renders on it. */
+    private void showBase(BufferedImage img) {
+        baseImage = img;
+        proxyImage = ImageUtils.createProxy(baseImage, PREVIEW_W, PREVIEW_H);
+        // undo/redo change baseImage in place, so identity alone cannot invalidate the cache
+        previewChain.clear();
+        fullChain.clear();
+        viewer.setPyramid(new ImageViewer.Pyramid(proxyImage, proxyScale()));
+        updatePreviewLive();
+    }
+
+    private void updateHistoryButtons() {
+        if (undoBtn == null) return;
+        // runBusy re-enables them when it finishes
+        undoBtn.setEnabled(!busy && history.canUndo());
+        redoBtn.setEnabled(!busy && history.canRedo());
+        undoBtn.setToolTipText(history.canUndo() ? "Undo " + history.undoLabel() : null);
+        redoBtn.setToolTipText(history.canRedo() ? "Redo " + history.redoLabel() : null);
+    }
+
     private void saveOperationImage() {
-        if (previewImage == null) return;
-        try {
-            String name;
-            File out;
-
-            switch(currentOp){
-                case ENHANCE:
-                    name = String.format("enhanced_%03d.png", enhancedC.getAndIncrement());
-                    out = new File(SAVED_DIR, name);
-                    ImageUtils.saveImage(previewImage, out, "png", 1f);
-                    break;
-                case SHARPEN:
-                    name = String.format("sharpened_%03d.png", sharpenedC.getAndIncrement());
-                    out = new File(SAVED_DIR, name);
-                    ImageUtils.saveImage(previewImage, out, "png", 1f);
-                    break;
-                case BLUR:
-                    name = String.format("blurred_%03d.png", blurredC.getAndIncrement());
-                    out = new File(SAVED_DIR, name);
-                    ImageUtils.saveImage(previewImage, out, "png", 1f);
-                    break;
-                case COMPRESS:
-                    name = String.format("compressed_%03d.jpg", compressedC.getAndIncrement());
-                    out = new File(SAVED_DIR, name);
-                    ImageCompressor.saveCompressedJPG(previewImage, out, valueSlider.getValue()/100f);
-                    break;
-                default:
-                    return;
-            }
+        if (baseImage == null || chain.isEmpty()) return;
+        cancelPreviews();
+
+        List<StepParams> steps = new ArrayList<>(chain);
+        StepParams last = steps.get(steps.size() - 1);
+        BufferedImage base = baseImage;
+
+        if (last.op == Operation.COMPRESS) {
+            // encode the final step's input directly instead of re-encoding a decoded JPEG
+            runBusy("Rendering full resolution (" + base.getWidth() + " x " + base.getHeight() + ")",
+                    () -> fullChain.evaluate(base, nodes(steps, steps.size() - 1, 1.0)),
+                    input -> queueSave("compressed", "jpg",
+                            tmp -> ImageCompressor.saveCompressedJPG(input, tmp, last.value / 100f), null));
+            return;
+        }
+
+        String prefix;
+        switch(last.op){
+            case ENHANCE:
+                prefix = "enhanced";
+                break;
+            case SHARPEN:
+                prefix = "sharpened";
+                break;
+            case BLUR:
+                prefix = "blurred";
+                break;
+            default:
+                return;
+        }
+        runBusy("Rendering full resolution (" + base.getWidth() + " x " + base.getHeight() + ")",
+                () -> fullChain.evaluate(base, nodes(steps, steps.size(), 1.0)),
+                result -> savePNG(prefix, result));
+    }
+
+    /** Queues img as a new PNG in SAVED_DIR; img must not change until it is written. */
+    private void savePNG(String prefix, BufferedImage img) {
+        queueSaves(Collections.singletonList(SaveService.Request.png(prefix, img)), null, null);
+    }
+
+    private File queueSave(String prefix, String ext, SaveService.Encoder encoder, Consumer<File> onDone) {
+        return queueSave(prefix, ext, encoder, onDone, null);
+    }
+
+    /**
+     * Queues a new file SAVED_DIR/prefix_NNN.ext written by encoder in the
+     * background; the status line follows it. Returns the file, or null (after
+     * telling the user) when too many saves are still pending. onError, if
+     * given, runs after a failed write has been reported.
+     */
+    private File queueSave(String prefix, String ext, SaveService.Encoder encoder, Consumer<File> onDone,
+                           Consumer<Exception> onError) {
+        List<File> out = queueSaves(Collections.singletonList(new SaveService.Request(prefix, ext, encoder)), onDone, onError);
+        return out == null ? null : out.get(0);
+    }
 
-            JOptionPane.showMessageDialog(frame, "Saved: " + out.getName());
-        } catch (Exception e){
-            JOptionPane.showMessageDialog(frame,"Save failed: "+e.getMessage());
+    /** queueSave for files that belong together: all of them are queued, or none. */
+    private List<File> queueSaves(List<SaveService.Request> files, Consumer<File> onDone, Consumer<Exception> onError) {
+        List<File> out = saves.saveAll(files,
+                f -> {
+                    lastSaved = f.getName();
+                    updateSaveStatus();
+                    if (onDone != null) onDone.accept(f);
+                },
+                e -> {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, "Save failed: " + e.getMessage());
+                    if (onError != null) onError.accept(e);
+                });
+        if (out == null) {
+            JOptionPane.showMessageDialog(frame, "Still writing " + saves.getPending() + " files, try again in a moment.");
         }
+        return out;
+    }
+
+    private void updateSaveStatus() {
+        int pending = saves.getPending();
+        saveStatus.setText(pending > 0 ? String.format("Writing %d file%s to %s/ ...", pending, pending == 1 ? "" : "s", SAVED_DIR)
+                : lastSaved != null ? "Saved: " + lastSaved : " ");
     }
 
     // ---------- ENCRYPT / DECRYPT (existing) ----------
@@ -817,16 +1446,14 @@ public class ImageProcessingGUI {
         AESEncryption aesTemp = new AESEncryption();
         String keyHex = aesTemp.getKeyHex();  // show to user
 
-        // Convert original image → PNG bytes
-        byte[] bytes = ImageUtils.toBytes(originalImage, "png", 1f);
-
-        // Encrypt
-        byte[] enc = aesTemp.encrypt(bytes);
-
-        // Save encrypted file
-        String name = String.format("encrypted_%03d.enc", encryptedC.getAndIncrement());
-        File out = new File(SAVED_DIR, name);
-        Files.write(out.toPath(), enc);
+        // Encode as PNG and encrypt straight into the file, in the background
+        BufferedImage img = originalImage;
+        File out = queueSave("encrypted", "enc", tmp -> ImageEncryptor.encryptAndSave(img, tmp, aesTemp),
+                f -> status.setText("Encrypted and saved: " + f.getName()),
+                e -> status.setText("Encryption failed"));
+        if (out == null) return;
+        // set before the modal popup, during which the write may already finish
+        status.setText("Encrypting to " + out.getName() + " ...");
 
         // Popup with key + copy button
         JTextArea ta = new JTextArea(keyHex);
@@ -840,13 +1467,11 @@ public class ImageProcessingGUI {
         });
 
         JPanel panel = new JPanel(new BorderLayout());
-        panel.add(new JLabel("Image encrypted successfully!\nYour Key:"), BorderLayout.NORTH);
+        panel.add(new JLabel("Image is being encrypted to " + out.getName() + ". Your Key:"), BorderLayout.NORTH);
         panel.add(new JScrollPane(ta), BorderLayout.CENTER);
         panel.add(copyBtn, BorderLayout.SOUTH);
 
-        JOptionPane.showMessageDialog(frame, panel, "Encryption Successful", JOptionPane.INFORMATION_MESSAGE);
-
-        status.setText("Encrypted and saved: " + name);
+        JOptionPane.showMessageDialog(frame, panel, "Encryption Key", JOptionPane.INFORMATION_MESSAGE);
 
     } catch (Exception ex) {
         status.setText("Encryption failed!");
@@ -889,27 +1514,41 @@ public class ImageProcessingGUI {
         return;
     }
 
-    try {
-        // Recreate AES object from user key
-        AESEncryption aesTemp = new AESEncryption(keyField.getText().trim());
-
-        byte[] encrypted = Files.readAllBytes(selected[0].toPath());
-        byte[] plain = aesTemp.decrypt(encrypted);
-
-        BufferedImage img = ImageUtils.loadImage(new ByteArrayInputStream(plain));
-
-        String name = String.format("decrypted_%03d.png", decryptedC.getAndIncrement());
-        File out = new File(SAVED_DIR, name);
-        ImageUtils.saveImage(img, out, "png", 1f);
+    // Decrypt with the user key in the background, streaming from the file into the decoder
+    File file = selected[0];
+    String key = keyField.getText().trim();
+    status.setText("Decrypting " + file.getName() + " ...");
+    new SwingWorker<BufferedImage,Void>() {
+        protected BufferedImage doInBackground() throws Exception {
+            return ImageDecryptor.decryptFileWithKey(file, key);
+        }
 
-        JOptionPane.showMessageDialog(frame, "Decryption successful!\nSaved as " + name);
+        protected void done(){
+            BufferedImage decrypted;
+            try {
+                decrypted = get();
+            } catch (Exception ex) {
+                decrypted = null;
+            }
+            if (decrypted == null) {
+                JOptionPane.showMessageDialog(frame, "Decryption failed!\nInvalid key or file!", "Error", JOptionPane.ERROR_MESSAGE);
+                status.setText("Decryption failed");
+                return;
+            }
 
-        status.setText("Decrypted and saved!");
+            BufferedImage img = decrypted;
+            File out = queueSave("decrypted", "png", tmp -> ImageUtils.saveImage(img, tmp, "png", 1f),
+                    f -> status.setText("Decrypted and saved: " + f.getName()),
+                    e -> status.setText("Saving the decrypted image failed"));
+            if (out == null) {
+                status.setText("Decrypted, but not saved");
+                return;
+            }
 
-    } catch (Exception ex) {
-        JOptionPane.showMessageDialog(frame, "Decryption failed!\nInvalid key or file!", "Error", JOptionPane.ERROR_MESSAGE);
-        status.setText("Decryption failed");
-    }
+            status.setText("Saving " + out.getName() + " ...");
+            JOptionPane.showMessageDialog(frame, "Decryption successful!\nSaving as " + out.getName());
+        }
+    }.execute();
 }
 
 
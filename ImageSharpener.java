@@ -1,6 +1,5 @@
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 
 /**
  * ImageSharpener
@@ -35,13 +34,52 @@ public class ImageSharpener {
             0f, edge, 0f
         };
 
-        Kernel k = new Kernel(3, 3, kernel);
-        ConvolveOp op = new ConvolveOp(k, ConvolveOp.EDGE_NO_OP, null);
+        BufferedImage work = PixelBuffer.toSupported(img);
+        BufferedImage dest = PixelBuffer.createCompatible(work);
+        convolve3x3(PixelBuffer.wrap(work), PixelBuffer.wrap(dest), kernel);
 
-        // Apply the filter and return new image
-        BufferedImage dest = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
-        op.filter(img, dest);
-        return dest;
+        if (work == img) return dest;
+        BufferedImage typed = PixelBuffer.createCompatible(img);
+        Graphics2D g = typed.createGraphics();
+        g.drawImage(dest, 0, 0, null);
+        g.dispose();
+        return typed;
+    }
+
+    /**
+     * Applies a 3x3 kernel to the color bands in parallel row bands.
+     * Alpha and the 1-pixel border are copied unchanged (like ConvolveOp.EDGE_NO_OP).
+     */
+    private static void convolve3x3(PixelBuffer in, PixelBuffer out, float[] k) {
+        int w = in.width, h = in.height, nb = in.bands;
+        int colorBands = in.hasAlpha ? nb - 1 : nb;
+        int stride = w * nb;
+
+        TileScheduler.forEachBand(h, 1, (y0, y1) -> {
+            int[] up = new int[stride], mid = new int[stride], dn = new int[stride];
+            int[] row = new int[stride];
+            for (int y = y0; y < y1; y++) {
+                in.readRow(y, mid);
+                if (y == 0 || y == h - 1) {
+                    out.writeRow(y, mid);
+                    continue;
+                }
+                in.readRow(y - 1, up);
+                in.readRow(y + 1, dn);
+                System.arraycopy(mid, 0, row, 0, stride);
+                for (int x = 1; x < w - 1; x++) {
+                    int c = x * nb;
+                    for (int b = 0; b < colorBands; b++) {
+                        int i = c + b;
+                        float v = k[0] * up[i - nb] + k[1] * up[i] + k[2] * up[i + nb]
+                                + k[3] * mid[i - nb] + k[4] * mid[i] + k[5] * mid[i + nb]
+                                + k[6] * dn[i - nb] + k[7] * dn[i] + k[8] * dn[i + nb];
+                        row[i] = v <= 0f ? 0 : v >= 255f ? 255 : (int) v;
+                    }
+                }
+                out.writeRow(y, row);
+            }
+        });
     }
 
     /**
@@ -1,13 +1,18 @@
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.IIOImage;
+import javax.imageio.event.IIOReadProgressListener;
 import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
 
 import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
 import java.util.Iterator;
+import java.util.concurrent.CancellationException;
 
 public class ImageUtils {
 
@@ -15,9 +20,106 @@ public class ImageUtils {
      * Load image from a File.
      */
     public static BufferedImage loadImage(File file) throws IOException {
-        return ImageIO.read(file);
+        return loadImage(file, null, 1, null);
     }
 
+    /**
+     * Load image decoded with source subsampling (every n-th pixel and row),
+     * so that it fits in maxW x maxH. The full-resolution raster is never
+     * allocated, so this works for files too large to decode whole.
+     */
+    public static BufferedImage loadImage(File file, int maxW, int maxH) throws IOException {
+        Dimension size = probeSize(file);
+        if (size == null) return null;
+        int step = (int) Math.max(1, Math.ceil(Math.max((double) size.width / maxW, (double) size.height / maxH)));
+        return loadImage(file, null, step, null);
+    }
+
+    /**
+     * Load only region (in source pixels, clipped to the image) of a file.
+     */
+    public static BufferedImage loadRegion(File file, Rectangle region) throws IOException {
+        return loadImage(file, region, 1, null);
+    }
+
+    /**
+     * Load image through an ImageReader:
+     * - region: source rectangle to decode, or null for the whole image
+     * - step: source subsampling in both directions (1 = full resolution)
+     * - listener: receives the reader's progress events (may be null)
+     *
+     * Progress is also reported to the current TileScheduler token, and
+     * cancelling that token aborts the decode (CancellationException).
+     *
+     * @return null if no reader understands the file (like ImageIO.read)
+     */
+    public static BufferedImage loadImage(File file, Rectangle region, int step,
+                                          IIOReadProgressListener listener) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) throw new FileNotFoundException(file.getPath());
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (region != null) {
+                    Rectangle clipped = region.intersection(new Rectangle(reader.getWidth(0), reader.getHeight(0)));
+                    if (clipped.isEmpty()) throw new IllegalArgumentException("Region outside the image: " + region);
+                    param.setSourceRegion(clipped);
+                }
+                if (step > 1) param.setSourceSubsampling(step, step, 0, 0);
+
+                if (listener != null) reader.addIIOReadProgressListener(listener);
+                reader.addIIOReadProgressListener(CANCELLABLE_PROGRESS);
+                BufferedImage img = reader.read(0, param);
+                TileScheduler.checkCancelled();
+                return img;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Width and height from the file header, without decoding any pixels;
+     * null if no reader understands the file.
+     */
+    public static Dimension probeSize(File file) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) throw new FileNotFoundException(file.getPath());
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // forwards decode progress to the TileScheduler token and aborts the read when it is cancelled
+    private static final IIOReadProgressListener CANCELLABLE_PROGRESS = new IIOReadProgressListener() {
+        public void sequenceStarted(ImageReader source, int minIndex) {}
+        public void sequenceComplete(ImageReader source) {}
+        public void imageStarted(ImageReader source, int imageIndex) {}
+        public void imageProgress(ImageReader source, float percentageDone) {
+            TileScheduler.progress(percentageDone / 100.0);
+            try {
+                TileScheduler.checkCancelled();
+            } catch (CancellationException e) {
+                source.abort();
+            }
+        }
+        public void imageComplete(ImageReader source) {}
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+        public void thumbnailProgress(ImageReader source, float percentageDone) {}
+        public void thumbnailComplete(ImageReader source) {}
+        public void readAborted(ImageReader source) {}
+    };
+
     /**
      * Load image from an InputStream.
      */
@@ -111,11 +213,51 @@ public class ImageUtils {
     }
 
     /**
-     * Convert BufferedImage to bytes (PNG encoding).
+     * Downscaled copy that fits in maxW x maxH, for previews. Never upscales
+     * (returns src when it already fits) and halves repeatedly before the
+     * last bilinear step, so large sources don't alias. Alpha-free sources
+     * give an INT_RGB copy, so the result can still be JPEG-encoded.
+     */
+    public static BufferedImage createProxy(BufferedImage src, int maxW, int maxH) {
+        if (src == null) return null;
+
+        int w = src.getWidth();
+        int h = src.getHeight();
+        double scale = Math.min((double) maxW / w, (double) maxH / h);
+        if (scale >= 1) return src;
+
+        int tw = Math.max(1, (int) (w * scale));
+        int th = Math.max(1, (int) (h * scale));
+        int type = src.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage cur = src;
+        while (cur.getWidth() != tw || cur.getHeight() != th) {
+            w = Math.max(tw, cur.getWidth() / 2);
+            h = Math.max(th, cur.getHeight() / 2);
+
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(cur, 0, 0, w, h, null);
+            g.dispose();
+            cur = next;
+        }
+
+        return cur;
+    }
+
+    /**
+     * Convert BufferedImage to encoded bytes (PNG, or JPEG at the given quality).
      */
     public static byte[] toBytes(BufferedImage img, String format, float quality) throws Exception {
+        format = format.toLowerCase();
+        if (format.equals("jpg") || format.equals("jpeg")) {
+            return ImageCompressor.encodeJPG(img, Math.max(0.01f, Math.min(1f, quality)));
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        saveImage(img, new File("temp." + format), format, quality);
+        if (!ImageIO.write(img, format, baos))
+            throw new IOException("No writer for format: " + format);
         return baos.toByteArray();
     }
 }
@@ -0,0 +1,279 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ImageViewer
+ * ----------------------------
+ * Zoom / pan view of one image:
+ * - the image is held as a mip pyramid (each level half the previous), built
+ *   once per image, off the EDT when created through {@link Pyramid}
+ * - painting picks the closest level at or above the current zoom and draws
+ *   only the tiles of that level intersecting the view
+ * - the view is rendered into one back buffer that is reused until the
+ *   component is resized; repaints without a view change just blit it
+ *
+ * Zoom is in screen pixels per full-resolution pixel, so an image that is a
+ * downscaled proxy (see Pyramid's scale) is shown at its real size and 100%
+ * means 1:1 with the full-resolution image. Wheel zooms around the cursor,
+ * dragging pans, double-click toggles between fit and 100%.
+ */
+public class ImageViewer extends JComponent {
+
+    private static final int TILE = 256;
+    private static final double MAX_ZOOM = 16;
+
+    /** Mip pyramid of an image; immutable once built, so it can be built on any thread. */
+    public static final class Pyramid {
+        private final List<BufferedImage> levels = new ArrayList<>();
+        private final double scale;
+
+        /**
+         * @param img   Level 0 (used as is, never copied)
+         * @param scale img's size relative to the full-resolution image (1 for full resolution)
+         */
+        public Pyramid(BufferedImage img, double scale) {
+            this.scale = scale;
+            levels.add(img);
+            int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            BufferedImage cur = img;
+            while (cur.getWidth() > TILE || cur.getHeight() > TILE) {
+                TileScheduler.checkCancelled();
+                int w = Math.max(1, cur.getWidth() / 2), h = Math.max(1, cur.getHeight() / 2);
+                BufferedImage next = new BufferedImage(w, h, type);
+                Graphics2D g = next.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(cur, 0, 0, w, h, null);
+                g.dispose();
+                levels.add(next);
+                cur = next;
+            }
+        }
+
+        public BufferedImage getImage() {
+            return levels.get(0);
+        }
+
+        /** Full-resolution width the pyramid stands for. */
+        double fullWidth() {
+            return levels.get(0).getWidth() / scale;
+        }
+
+        double fullHeight() {
+            return levels.get(0).getHeight() / scale;
+        }
+    }
+
+    private Pyramid pyramid;
+    private boolean fit = true;
+    private double zoom = 1;
+    // full-resolution image coordinate shown at the centre of the component
+    private double centerX, centerY;
+
+    // reused between repaints; rendered again only when dirty
+    private BufferedImage backBuffer;
+    private boolean dirty = true;
+
+    private final List<Runnable> zoomListeners = new ArrayList<>();
+    private Point dragFrom;
+
+    public ImageViewer() {
+        setOpaque(true);
+        setBackground(new Color(0xF2F2F2));
+        setFocusable(true);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragFrom = e.getPoint();
+                setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragFrom = null;
+                setCursor(Cursor.getDefaultCursor());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragFrom == null || pyramid == null) return;
+                double z = currentZoom();
+                centerX -= (e.getX() - dragFrom.x) / z;
+                centerY -= (e.getY() - dragFrom.y) / z;
+                dragFrom = e.getPoint();
+                fit = false;
+                zoom = z;
+                viewChanged(false);
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getPoint(), currentZoom() * Math.pow(1.25, -e.getPreciseWheelRotation()));
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() != 2 || pyramid == null) return;
+                if (fit) zoomAt(e.getPoint(), 1);
+                else fitToView();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /** Shows img (full resolution), building its pyramid on the calling thread. */
+    public void setImage(BufferedImage img) {
+        setPyramid(img == null ? null : new Pyramid(img, 1));
+    }
+
+    /**
+     * Shows a pre-built pyramid, keeping zoom and position when the
+     * full-resolution size is unchanged (e.g. a new preview of the same image).
+     */
+    public void setPyramid(Pyramid p) {
+        boolean sameSize = pyramid != null && p != null
+                && Math.round(pyramid.fullWidth()) == Math.round(p.fullWidth())
+                && Math.round(pyramid.fullHeight()) == Math.round(p.fullHeight());
+        pyramid = p;
+        if (!sameSize && p != null) {
+            fit = true;
+            centerX = p.fullWidth() / 2;
+            centerY = p.fullHeight() / 2;
+        }
+        viewChanged(!sameSize);
+    }
+
+    public Pyramid getPyramid() {
+        return pyramid;
+    }
+
+    /** Screen pixels per full-resolution pixel. */
+    public double getZoom() {
+        return currentZoom();
+    }
+
+    public void fitToView() {
+        if (pyramid == null) return;
+        fit = true;
+        centerX = pyramid.fullWidth() / 2;
+        centerY = pyramid.fullHeight() / 2;
+        viewChanged(true);
+    }
+
+    /** Called on the EDT whenever the zoom changes. */
+    public void addZoomListener(Runnable r) {
+        zoomListeners.add(r);
+    }
+
+    private void zoomAt(Point p, double newZoom) {
+        if (pyramid == null) return;
+        double z = currentZoom();
+        newZoom = Math.max(Math.min(fitZoom(), 1) / 4, Math.min(MAX_ZOOM, newZoom));
+        // keep the image point under the cursor in place
+        double ix = centerX + (p.x - getWidth() / 2.0) / z;
+        double iy = centerY + (p.y - getHeight() / 2.0) / z;
+        centerX = ix - (p.x - getWidth() / 2.0) / newZoom;
+        centerY = iy - (p.y - getHeight() / 2.0) / newZoom;
+        zoom = newZoom;
+        fit = false;
+        viewChanged(true);
+    }
+
+    private double fitZoom() {
+        if (pyramid == null || getWidth() == 0 || getHeight() == 0) return 1;
+        return Math.min(1, Math.min(getWidth() / pyramid.fullWidth(), getHeight() / pyramid.fullHeight()));
+    }
+
+    private double currentZoom() {
+        return fit ? fitZoom() : zoom;
+    }
+
+    private void viewChanged(boolean zoomChanged) {
+        dirty = true;
+        repaint();
+        if (zoomChanged) for (Runnable r : zoomListeners) r.run();
+    }
+
+    @Override
+    public void setBounds(int x, int y, int w, int h) {
+        boolean resized = w != getWidth() || h != getHeight();
+        super.setBounds(x, y, w, h);
+        if (resized) viewChanged(fit);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int w = getWidth(), h = getHeight();
+        if (w <= 0 || h <= 0) return;
+
+        if (backBuffer == null || backBuffer.getWidth() != w || backBuffer.getHeight() != h) {
+            backBuffer = getGraphicsConfiguration() != null
+                    ? getGraphicsConfiguration().createCompatibleImage(w, h)
+                    : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            dirty = true;
+        }
+        if (dirty) {
+            Graphics2D bg = backBuffer.createGraphics();
+            renderView(bg, w, h);
+            bg.dispose();
+            dirty = false;
+        }
+        g.drawImage(backBuffer, 0, 0, null);
+    }
+
+    /** Draws the visible tiles of the closest pyramid level into g. */
+    private void renderView(Graphics2D g, int w, int h) {
+        g.setColor(getBackground());
+        g.fillRect(0, 0, w, h);
+        if (pyramid == null) return;
+
+        double z = currentZoom();
+        // coarsest level that still has at least one pixel per screen pixel
+        int level = 0;
+        double levelScale = pyramid.scale;
+        while (level + 1 < pyramid.levels.size() && levelScale / 2 >= z) {
+            level++;
+            levelScale /= 2;
+        }
+        BufferedImage img = pyramid.levels.get(level);
+
+        // screen = (level pixel / levelScale - center) * z + half size
+        double f = z / levelScale;
+        double ox = w / 2.0 - centerX * z, oy = h / 2.0 - centerY * z;
+
+        int tx0 = Math.max(0, (int) Math.floor(-ox / f / TILE)), ty0 = Math.max(0, (int) Math.floor(-oy / f / TILE));
+        int tx1 = Math.min((img.getWidth() - 1) / TILE, (int) Math.floor((w - ox) / f / TILE));
+        int ty1 = Math.min((img.getHeight() - 1) / TILE, (int) Math.floor((h - oy) / f / TILE));
+
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, z >= 1
+                ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR   // show real pixels when inspecting
+                : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int sx = tx * TILE, sy = ty * TILE;
+                int sw = Math.min(TILE, img.getWidth() - sx), sh = Math.min(TILE, img.getHeight() - sy);
+                // neighbouring tiles round the shared edge the same way, so no seams
+                int dx0 = (int) Math.round(ox + sx * f), dy0 = (int) Math.round(oy + sy * f);
+                int dx1 = (int) Math.round(ox + (sx + sw) * f), dy1 = (int) Math.round(oy + (sy + sh) * f);
+                g.drawImage(img, dx0, dy0, dx1, dy1, sx, sy, sx + sw, sy + sh, null);
+            }
+        }
+
+        String label = String.format("%.0f%%%s", z * 100, fit ? " (fit)" : "");
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        int lw = g.getFontMetrics().stringWidth(label) + 10;
+        g.setColor(new Color(0, 0, 0, 120));
+        g.fillRoundRect(w - lw - 6, h - 22, lw, 16, 8, 8);
+        g.setColor(Color.WHITE);
+        g.drawString(label, w - lw - 1, h - 10);
+    }
+}
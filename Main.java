@@ -2,6 +2,11 @@ import javax.swing.SwingUtilities;
 
 public class Main {
 public static void main(String[] args){
+        // any arguments select the headless batch mode, see BatchProcessor
+        if (args.length > 0) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchProcessor.run(args));
+        }
         SwingUtilities.invokeLater(() -> {
             try {
                 new ImageProcessingGUI();
@@ -0,0 +1,156 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OperationChain
+ * ----------------------------
+ * Evaluates an ordered list of image operations (enhance -> sharpen -> blur
+ * -> ...) non-destructively, caching the output of every node:
+ * - a node is identified by a key (operation + parameters); equal keys mean
+ *   equal output for equal input
+ * - evaluate: keeps the cached outputs of the longest unchanged prefix and runs
+ *   only the nodes after it, so re-tuning step k of n costs n - k operations
+ *   (one, for the last step)
+ * - cached outputs are bounded by a byte budget; the least recently used go
+ *   first, and an evicted node is recomputed from the nearest cached one
+ *
+ * Nodes must not modify their input (every filter here returns a new image).
+ * Callers that modify the source in place must call clear(). evaluate holds
+ * the chain's lock while it runs; clear does not, so it never blocks the EDT.
+ */
+public class OperationChain {
+
+    /** One operation; must return a new image and leave src untouched. */
+    public interface Step {
+        BufferedImage apply(BufferedImage src) throws Exception;
+    }
+
+    /** A step with the key describing it (operation and parameter values). */
+    public static final class Node {
+        final String key;
+        final Step step;
+
+        public Node(String key, Step step) {
+            this.key = key;
+            this.step = step;
+        }
+    }
+
+    private final long memoryBudget;
+
+    // cache of the last evaluation: outputs.get(i) is the result of keys 0..i applied to source (null if evicted)
+    private BufferedImage source;
+    private volatile boolean cleared;
+    private final List<String> keys = new ArrayList<>();
+    private final List<BufferedImage> outputs = new ArrayList<>();
+    private final List<Long> lastUse = new ArrayList<>();
+    private long memoryBytes, clock;
+
+    // statistics of the last evaluate
+    private int lastRun, lastLength;
+
+    /**
+     * @param memoryBudget Bytes of intermediate images kept between evaluations
+     */
+    public OperationChain(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Applies nodes to source in order and returns the last output (source
+     * itself for an empty list). Nodes whose key and predecessors are unchanged
+     * since the previous call are served from the cache.
+     *
+     * @throws java.util.concurrent.CancellationException if the current TileScheduler token is cancelled
+     */
+    public synchronized BufferedImage evaluate(BufferedImage source, List<Node> nodes) throws Exception {
+        if (cleared || source != this.source) {
+            cleared = false;
+            truncate(0);
+            this.source = source;
+        }
+
+        // longest prefix still matching the cache; everything after it is stale
+        int common = 0;
+        while (common < nodes.size() && common < keys.size() && keys.get(common).equals(nodes.get(common).key)) common++;
+        if (common < nodes.size()) truncate(common);
+
+        int start = common - 1;
+        while (start >= 0 && outputs.get(start) == null) start--;
+        BufferedImage img = start < 0 ? source : outputs.get(start);
+        if (start >= 0) lastUse.set(start, ++clock);
+
+        lastRun = 0;
+        lastLength = nodes.size();
+        for (int i = start + 1; i < nodes.size(); i++) {
+            TileScheduler.checkCancelled();
+            img = nodes.get(i).step.apply(img);
+            lastRun++;
+            store(i, nodes.get(i).key, img);
+        }
+        return img;
+    }
+
+    /** Drops every cached output; callable from any thread, takes effect at the next evaluate. */
+    public void clear() {
+        cleared = true;
+    }
+
+    /** Nodes actually run by the last evaluate. */
+    public synchronized int getLastRunCount() {
+        return lastRun;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /** One-line summary of the last evaluation, for a status label. */
+    public synchronized String getStatsText() {
+        int cached = 0;
+        for (BufferedImage img : outputs) if (img != null) cached++;
+        return String.format("chain: ran %d of %d steps, %d cached (%.1f MB)",
+                lastRun, lastLength, cached, memoryBytes / (1024.0 * 1024));
+    }
+
+    private void truncate(int size) {
+        while (keys.size() > size) {
+            int last = keys.size() - 1;
+            BufferedImage img = outputs.remove(last);
+            if (img != null) memoryBytes -= bytes(img);
+            keys.remove(last);
+            lastUse.remove(last);
+        }
+    }
+
+    private void store(int index, String key, BufferedImage img) {
+        if (index < keys.size()) {
+            BufferedImage old = outputs.set(index, img);
+            if (old != null) memoryBytes -= bytes(old);
+            lastUse.set(index, ++clock);
+        } else {
+            keys.add(key);
+            outputs.add(img);
+            lastUse.add(++clock);
+        }
+        memoryBytes += bytes(img);
+
+        // evict least recently used outputs, never the one just stored
+        while (memoryBytes > memoryBudget) {
+            int victim = -1;
+            for (int i = 0; i < outputs.size(); i++) {
+                if (i == index || outputs.get(i) == null) continue;
+                if (victim < 0 || lastUse.get(i) < lastUse.get(victim)) victim = i;
+            }
+            if (victim < 0) break;
+            memoryBytes -= bytes(outputs.get(victim));
+            outputs.set(victim, null);
+        }
+    }
+
+    private static long bytes(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight()
+                * img.getColorModel().getPixelSize() / 8;
+    }
+}
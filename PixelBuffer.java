@@ -0,0 +1,243 @@
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+/**
+ * PixelBuffer
+ * ----------------------------
+ * Direct view of the primitive array behind a BufferedImage, so processors can
+ * run over int[] / byte[] data instead of going through Raster.getSample.
+ *
+ * Supported layouts are 8-bit, non-premultiplied images with a single bank:
+ * - packed ints   (INT_RGB, INT_ARGB, INT_BGR)
+ * - interleaved bytes (3BYTE_BGR, 4BYTE_ABGR, BYTE_GRAY)
+ * Samples are always exchanged in raster band order (R,G,B[,A] or gray).
+ * Other images are converted with {@link #toSupported(BufferedImage)}.
+ */
+public final class PixelBuffer {
+
+    public final int width, height;
+    /** Samples per pixel in raster band order (3 or 4 for color, 1 for gray). */
+    public final int bands;
+    public final boolean hasAlpha;
+
+    /** Exactly one of ints / bytes is non-null. */
+    public final int[] ints;
+    public final byte[] bytes;
+
+    /** Array index of pixel (0,0), array elements per row, array elements per pixel. */
+    public final int offset, scanline, pixelStride;
+
+    // per band: bit shift inside an int pixel, or byte offset inside a byte pixel
+    private final int[] shift;
+    private final int[] bandOffset;
+
+    private PixelBuffer(BufferedImage img, int[] ints, byte[] bytes, int offset, int scanline,
+                        int pixelStride, int[] shift, int[] bandOffset) {
+        this.width = img.getWidth();
+        this.height = img.getHeight();
+        this.bands = img.getRaster().getNumBands();
+        this.hasAlpha = img.getColorModel().hasAlpha();
+        this.ints = ints;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.scanline = scanline;
+        this.pixelStride = pixelStride;
+        this.shift = shift;
+        this.bandOffset = bandOffset;
+    }
+
+    /**
+     * Wraps the image's backing array, or returns null if the layout is not supported.
+     * Writing through the buffer modifies the image.
+     */
+    public static PixelBuffer wrap(BufferedImage img) {
+        if (img == null) return null;
+        ColorModel cm = img.getColorModel();
+        if (cm instanceof IndexColorModel || cm.isAlphaPremultiplied()) return null;
+        int csType = cm.getColorSpace().getType();
+        if (csType != ColorSpace.TYPE_RGB && csType != ColorSpace.TYPE_GRAY) return null;
+        for (int b : cm.getComponentSize()) if (b != 8) return null;
+
+        WritableRaster r = img.getRaster();
+        SampleModel sm = r.getSampleModel();
+        DataBuffer db = r.getDataBuffer();
+        if (db.getNumBanks() != 1) return null;
+        int tx = r.getSampleModelTranslateX();
+        int ty = r.getSampleModelTranslateY();
+
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel sp = (SinglePixelPackedSampleModel) sm;
+            int[] shifts = sp.getBitOffsets();
+            int scan = sp.getScanlineStride();
+            int off = db.getOffset() - ty * scan - tx;
+            return new PixelBuffer(img, ((DataBufferInt) db).getData(), null, off, scan, 1, shifts, null);
+        }
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel
+                && !(sm instanceof BandedSampleModel)) {
+            ComponentSampleModel cs = (ComponentSampleModel) sm;
+            int scan = cs.getScanlineStride();
+            int ps = cs.getPixelStride();
+            int off = db.getOffset() - ty * scan - tx * ps;
+            return new PixelBuffer(img, null, ((DataBufferByte) db).getData(), off, scan, ps, null, cs.getBandOffsets());
+        }
+        return null;
+    }
+
+    /** Returns img itself if it can be wrapped, otherwise an INT_ARGB copy. */
+    public static BufferedImage toSupported(BufferedImage img) {
+        if (wrap(img) != null) return img;
+        return convert(img, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /** New blank image with the same type (or, for custom types, color model) as src. */
+    public static BufferedImage createCompatible(BufferedImage src) {
+        int type = src.getType();
+        if (type != BufferedImage.TYPE_CUSTOM && type != BufferedImage.TYPE_BYTE_BINARY
+                && type != BufferedImage.TYPE_BYTE_INDEXED) {
+            return new BufferedImage(src.getWidth(), src.getHeight(), type);
+        }
+        ColorModel cm = src.getColorModel();
+        WritableRaster r = cm.createCompatibleWritableRaster(src.getWidth(), src.getHeight());
+        return new BufferedImage(cm, r, cm.isAlphaPremultiplied(), null);
+    }
+
+    /** Draws src into a new image of the given type. */
+    public static BufferedImage convert(BufferedImage src, int type) {
+        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), type);
+        Graphics2D g = out.createGraphics();
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return out;
+    }
+
+    /**
+     * True for packed ints with the color bands at bits 16-23, 8-15, 0-7
+     * (INT_RGB / INT_ARGB), whatever the top byte holds.
+     */
+    public boolean isPackedRGB() {
+        return ints != null && bands >= 3 && shift[0] == 16 && shift[1] == 8 && shift[2] == 0
+                && (bands == 3 || shift[3] == 24);
+    }
+
+    // ---------- row access ----------
+
+    /** Array index of the first sample of row y. */
+    public int rowStart(int y) {
+        return offset + y * scanline;
+    }
+
+    /** Reads row y into dst as interleaved samples (width * bands values, 0..255). */
+    public void readRow(int y, int[] dst) {
+        int p = rowStart(y);
+        int nb = bands;
+        if (ints != null) {
+            int[] sh = shift;
+            for (int x = 0, i = 0; x < width; x++, p++) {
+                int px = ints[p];
+                for (int b = 0; b < nb; b++) dst[i++] = (px >>> sh[b]) & 0xFF;
+            }
+        } else {
+            int[] bo = bandOffset;
+            int ps = pixelStride;
+            for (int x = 0, i = 0; x < width; x++, p += ps) {
+                for (int b = 0; b < nb; b++) dst[i++] = bytes[p + bo[b]] & 0xFF;
+            }
+        }
+    }
+
+    /** Writes interleaved samples (already clamped to 0..255) into row y. */
+    public void writeRow(int y, int[] src) {
+        int p = rowStart(y);
+        int nb = bands;
+        if (ints != null) {
+            int[] sh = shift;
+            // INT_RGB has no alpha band; keep the unused top byte opaque like ImageIO does
+            int fill = nb == 3 ? 0xFF << 24 : 0;
+            for (int x = 0, i = 0; x < width; x++, p++) {
+                int px = fill;
+                for (int b = 0; b < nb; b++) px |= src[i++] << sh[b];
+                ints[p] = px;
+            }
+        } else {
+            int[] bo = bandOffset;
+            int ps = pixelStride;
+            for (int x = 0, i = 0; x < width; x++, p += ps) {
+                for (int b = 0; b < nb; b++) bytes[p + bo[b]] = (byte) src[i++];
+            }
+        }
+    }
+
+    /** Reads row y as 8-bit luminance (Rec. 601 integer weights). */
+    public void readLumaRow(int y, int[] dst) {
+        int p = rowStart(y);
+        if (bands < 3) {
+            if (ints != null) {
+                int s = shift[0];
+                for (int x = 0; x < width; x++) dst[x] = (ints[p + x] >>> s) & 0xFF;
+            } else {
+                int ps = pixelStride;
+                for (int x = 0; x < width; x++, p += ps) dst[x] = bytes[p] & 0xFF;
+            }
+            return;
+        }
+        if (ints != null) {
+            int sr = shift[0], sg = shift[1], sb = shift[2];
+            for (int x = 0; x < width; x++) {
+                int px = ints[p + x];
+                dst[x] = luma((px >>> sr) & 0xFF, (px >>> sg) & 0xFF, (px >>> sb) & 0xFF);
+            }
+        } else {
+            int or = bandOffset[0], og = bandOffset[1], ob = bandOffset[2];
+            int ps = pixelStride;
+            for (int x = 0; x < width; x++, p += ps) {
+                dst[x] = luma(bytes[p + or] & 0xFF, bytes[p + og] & 0xFF, bytes[p + ob] & 0xFF);
+            }
+        }
+    }
+
+    public static int luma(int r, int g, int b) {
+        return (r * 77 + g * 150 + b * 29 + 128) >> 8;
+    }
+
+    // ---------- grayscale helpers ----------
+
+    /** Luminance of src as a flat, row-major byte array of width * height. */
+    public static byte[] toGray(BufferedImage src) {
+        PixelBuffer pb = wrap(src);
+        if (pb == null) pb = wrap(convert(src, BufferedImage.TYPE_INT_RGB));
+        int w = pb.width, h = pb.height;
+        byte[] out = new byte[w * h];
+        if (pb.bands == 1 && pb.bytes != null && pb.pixelStride == 1) {
+            for (int y = 0; y < h; y++) System.arraycopy(pb.bytes, pb.rowStart(y), out, y * w, w);
+            return out;
+        }
+        if (pb.ints != null && pb.bands >= 3) {
+            int sr = pb.shift[0], sg = pb.shift[1], sb = pb.shift[2];
+            int[] px = pb.ints;
+            for (int y = 0; y < h; y++) {
+                for (int x = 0, p = pb.rowStart(y), i = y * w; x < w; x++, p++, i++) {
+                    int v = px[p];
+                    out[i] = (byte) luma((v >>> sr) & 0xFF, (v >>> sg) & 0xFF, (v >>> sb) & 0xFF);
+                }
+            }
+            return out;
+        }
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            pb.readLumaRow(y, row);
+            for (int x = 0, i = y * w; x < w; x++, i++) out[i] = (byte) row[x];
+        }
+        return out;
+    }
+
+    /** New TYPE_BYTE_GRAY image; its data array is flat and row-major. */
+    public static BufferedImage newGray(int w, int h) {
+        return new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    /** Backing array of an image created by {@link #newGray(int, int)}. */
+    public static byte[] grayData(BufferedImage gray) {
+        return ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+    }
+}
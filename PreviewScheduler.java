@@ -0,0 +1,157 @@
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * PreviewScheduler
+ * ----------------------------
+ * Single-flight renderer for live previews:
+ * - submit: replaces the pending parameter set (older ones are coalesced away)
+ *   and cancels the render in flight at its next band boundary
+ * - results carry the generation they were submitted with; anything older than
+ *   the latest submit is dropped instead of being shown
+ * - one background thread renders; results are delivered on the EDT
+ *
+ * Parameters must be captured on the EDT by the caller (they are immutable
+ * snapshots here). Queue depth and render latency are exposed for display.
+ *
+ * @param <P> Parameter snapshot type
+ * @param <R> Rendered result type (an image, or an image plus annotations)
+ */
+public class PreviewScheduler<P, R> {
+
+    /** Renders one parameter set; runs on the scheduler thread. */
+    public interface Renderer<P, R> {
+        R render(P params) throws Exception;
+    }
+
+    private static final class Job<P> {
+        final P params;
+        final long generation;
+        final long submitted = System.nanoTime();
+        final TileScheduler.CancellationToken token = new TileScheduler.CancellationToken();
+
+        Job(P params, long generation) {
+            this.params = params;
+            this.generation = generation;
+        }
+    }
+
+    private final Renderer<P, R> renderer;
+    private final Consumer<R> onResult;
+    private final ExecutorService worker;
+
+    // guarded by this
+    private long generation;
+    private Job<P> pending, running;
+
+    // metrics, guarded by this
+    private long submitted, coalesced, cancelled, stale, rendered;
+    private double lastLatencyMs, totalLatencyMs;
+
+    /**
+     * @param renderer Produces a preview from a parameter snapshot (off the EDT)
+     * @param onResult Receives the newest preview on the EDT
+     */
+    public PreviewScheduler(Renderer<P, R> renderer, Consumer<R> onResult) {
+        this("preview-render", Thread.NORM_PRIORITY, renderer, onResult);
+    }
+
+    /**
+     * @param threadName Name of the render thread
+     * @param priority   Its priority, e.g. below normal for work that may lag the preview
+     */
+    public PreviewScheduler(String threadName, int priority, Renderer<P, R> renderer, Consumer<R> onResult) {
+        this.renderer = renderer;
+        this.onResult = onResult;
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            t.setPriority(priority);
+            return t;
+        });
+    }
+
+    /** Schedules a render of params, superseding anything pending or in flight. */
+    public synchronized void submit(P params) {
+        submitted++;
+        if (pending != null) coalesced++;
+        pending = new Job<>(params, ++generation);
+        if (running != null) {
+            running.token.cancel();
+        } else {
+            worker.execute(this::drain);
+        }
+    }
+
+    /** Drops the pending render and cancels the one in flight; nothing older is delivered. */
+    public synchronized void cancel() {
+        generation++;
+        pending = null;
+        if (running != null) running.token.cancel();
+    }
+
+    /** Renders pending jobs until none is left. */
+    private void drain() {
+        while (true) {
+            Job<P> job;
+            synchronized (this) {
+                job = pending;
+                pending = null;
+                running = job;
+                if (job == null) return;
+            }
+
+            R result = null;
+            try {
+                result = TileScheduler.call(job.token, () -> renderer.render(job.params));
+            } catch (CancellationException e) {
+                synchronized (this) { cancelled++; }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            synchronized (this) {
+                running = null;
+            }
+            if (result != null) deliver(job, result);
+        }
+    }
+
+    private void deliver(Job<P> job, R result) {
+        SwingUtilities.invokeLater(() -> {
+            synchronized (this) {
+                if (job.generation != generation) {
+                    stale++;
+                    return;
+                }
+                rendered++;
+                lastLatencyMs = (System.nanoTime() - job.submitted) / 1e6;
+                totalLatencyMs += lastLatencyMs;
+            }
+            onResult.accept(result);
+        });
+    }
+
+    /** Renders waiting or in flight (0, 1 or 2). */
+    public synchronized int getQueueDepth() {
+        return (pending != null ? 1 : 0) + (running != null ? 1 : 0);
+    }
+
+    /** Submit-to-display time of the last delivered preview, in milliseconds. */
+    public synchronized double getLastLatencyMillis() {
+        return lastLatencyMs;
+    }
+
+    public synchronized double getAverageLatencyMillis() {
+        return rendered == 0 ? 0 : totalLatencyMs / rendered;
+    }
+
+    /** One-line summary of the counters, for a status label. */
+    public synchronized String getMetricsText() {
+        return String.format("queue %d | latency %.0f ms (avg %.0f) | %d rendered, %d coalesced, %d cancelled, %d stale of %d requests",
+                getQueueDepth(), lastLatencyMs, getAverageLatencyMillis(), rendered, coalesced, cancelled, stale, submitted);
+    }
+}
@@ -0,0 +1,231 @@
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SaveService
+ * ----------------------------
+ * Write-behind saving into one output directory, so encoding never runs on
+ * the EDT:
+ * - save: names the file, queues the encode and returns at once; at most
+ *   `capacity` saves are pending (each holds its image), further saves are
+ *   refused until one finishes
+ * - saveAll: several files that belong together, queued all or none
+ * - every file is encoded into a hidden temp file in the same directory,
+ *   flushed to the disk and then moved onto its name atomically, so a crash
+ *   or power loss never leaves a truncated output (stale temp files are
+ *   deleted at the next start)
+ * - names are "prefix_NNN.ext", numbered after the highest number already
+ *   present in the directory, so a restart never overwrites earlier outputs
+ *
+ * Writes run one at a time on a background thread; callbacks and listeners
+ * run on the EDT. Pending writes are finished before the JVM exits.
+ */
+public class SaveService {
+
+    /** Writes the encoded file to tmp. */
+    public interface Encoder {
+        void write(File tmp) throws Exception;
+    }
+
+    /** One file of a saveAll: written as "prefix_NNN.ext" by encoder. */
+    public static final class Request {
+        final String prefix, ext;
+        final Encoder encoder;
+
+        public Request(String prefix, String ext, Encoder encoder) {
+            this.prefix = prefix;
+            this.ext = ext;
+            this.encoder = encoder;
+        }
+
+        /** img as PNG; img must not be modified until it is written. */
+        public static Request png(String prefix, BufferedImage img) {
+            return new Request(prefix, "png", tmp -> ImageUtils.saveImage(img, tmp, "png", 1f));
+        }
+    }
+
+    private static final String TEMP_PREFIX = ".saving-";
+    private static final Pattern NUMBERED = Pattern.compile("(.+)_(\\d+)\\.[^.]+");
+
+    private final File dir;
+    private final int capacity;
+    private final Semaphore slots;
+    private final ExecutorService writer;
+    private final List<Runnable> listeners = new ArrayList<>();
+
+    // prefix -> highest number taken
+    private final Map<String, Integer> lastNumber = new HashMap<>();
+
+    /**
+     * @param capacity Saves that may be pending at the same time
+     */
+    public SaveService(File dir, int capacity) throws IOException {
+        this.dir = dir;
+        this.capacity = capacity;
+        slots = new Semaphore(capacity);
+        Files.createDirectories(dir.toPath());
+
+        File[] files = dir.listFiles(File::isFile);
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(TEMP_PREFIX)) {
+                    // left behind by a crash during a write
+                    Files.deleteIfExists(f.toPath());
+                    continue;
+                }
+                Matcher m = NUMBERED.matcher(f.getName());
+                if (m.matches() && m.group(2).length() < 10) {
+                    lastNumber.merge(m.group(1), Integer.parseInt(m.group(2)), Math::max);
+                }
+            }
+        }
+
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "save-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(60, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }, "save-flush"));
+    }
+
+    /**
+     * Queues a write of a new file "prefix_NNN.ext".
+     *
+     * @param onDone  Receives the written file on the EDT
+     * @param onError Receives a failure on the EDT; nothing is left on disk
+     * @return the file that will be written, or null if capacity saves are already pending
+     */
+    public File save(String prefix, String ext, Encoder encoder, Consumer<File> onDone, Consumer<Exception> onError) {
+        if (!slots.tryAcquire()) return null;
+        File target = new File(dir, nextName(prefix, ext));
+        fireChanged();
+        queue(target, encoder, onDone, onError);
+        return target;
+    }
+
+    /**
+     * Queues every request, or none of them when fewer slots than requests
+     * are free (e.g. a result and its histogram, which are only useful together).
+     * onDone and onError are called once per file.
+     *
+     * @return the files that will be written, in request order, or null if nothing was queued
+     */
+    public List<File> saveAll(List<Request> requests, Consumer<File> onDone, Consumer<Exception> onError) {
+        if (!slots.tryAcquire(requests.size())) return null;
+        List<File> targets = new ArrayList<>();
+        for (Request r : requests) targets.add(new File(dir, nextName(r.prefix, r.ext)));
+        fireChanged();
+        for (int i = 0; i < targets.size(); i++) queue(targets.get(i), requests.get(i).encoder, onDone, onError);
+        return targets;
+    }
+
+    // writes target on the writer thread, then releases its slot and reports on the EDT
+    private void queue(File target, Encoder encoder, Consumer<File> onDone, Consumer<Exception> onError) {
+        writer.execute(() -> {
+            Exception error = null;
+            try {
+                write(target, encoder);
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                slots.release();
+            }
+            Exception e = error;
+            SwingUtilities.invokeLater(() -> {
+                fireChanged();
+                if (e != null) onError.accept(e);
+                else onDone.accept(target);
+            });
+        });
+    }
+
+    /** save() of img as PNG; img must not be modified until onDone. */
+    public File savePNG(String prefix, BufferedImage img, Consumer<File> onDone, Consumer<Exception> onError) {
+        Request r = Request.png(prefix, img);
+        return save(r.prefix, r.ext, r.encoder, onDone, onError);
+    }
+
+    /** Saves queued or being written. */
+    public int getPending() {
+        return capacity - slots.availablePermits();
+    }
+
+    /** Waits until every save queued so far is written; call off the EDT. */
+    public void awaitIdle() throws InterruptedException {
+        slots.acquire(capacity);
+        slots.release(capacity);
+    }
+
+    /** Called on the EDT whenever a save is queued or finished. */
+    public void addListener(Runnable r) {
+        listeners.add(r);
+    }
+
+    private void fireChanged() {
+        for (Runnable r : listeners) r.run();
+    }
+
+    private synchronized String nextName(String prefix, String ext) {
+        int n = lastNumber.getOrDefault(prefix, 0);
+        String name;
+        do {
+            name = String.format("%s_%03d.%s", prefix, ++n, ext);
+        } while (new File(dir, name).exists());
+        lastNumber.put(prefix, n);
+        return name;
+    }
+
+    // encodes into a temp file next to target, then publishes it under target's name
+    private void write(File target, Encoder encoder) throws Exception {
+        File tmp = File.createTempFile(TEMP_PREFIX, ".tmp", dir);
+        boolean ok = false;
+        try {
+            encoder.write(tmp);
+            // the data must be on the disk before the rename is, or a power loss can publish an empty file
+            try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            ok = true;
+        } finally {
+            if (!ok) Files.deleteIfExists(tmp.toPath());
+        }
+        syncDirectory();
+    }
+
+    // makes the rename itself durable; not possible on every platform (e.g. Windows), where it is skipped
+    private void syncDirectory() {
+        try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * TaskRunner
+ * ----------------------------
+ * Runs the GUI's analysis tools (histogram, transforms, edges) off the EDT:
+ * - a small worker pool shared by every page; the processors parallelize
+ *   their own bands through TileScheduler
+ * - tasks belong to a group (a page), which runs one task at a time: a second
+ *   click on the operation already running is ignored, a different operation
+ *   cancels the running one and takes its place
+ * - every task runs under its own TileScheduler token, which supplies the
+ *   fractional progress and lets cancel stop it at the next band boundary
+ * - results and errors are delivered on the EDT; cancelled tasks deliver nothing;
+ *   an Error thrown by a task (e.g. OutOfMemoryError) is delivered wrapped in an
+ *   ExecutionException, so the group never stays running
+ *
+ * All methods are meant to be called on the EDT.
+ */
+public class TaskRunner {
+
+    /** Background work; may use TileScheduler stages to report progress. */
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private static final class Job {
+        final String key, label;
+        final TileScheduler.CancellationToken token = new TileScheduler.CancellationToken();
+
+        Job(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+    }
+
+    private final ExecutorService pool;
+    // group -> its running task
+    private final Map<String, Job> running = new HashMap<>();
+    private final List<Runnable> listeners = new ArrayList<>();
+
+    /**
+     * @param threads Tasks that may run at the same time (in different groups)
+     */
+    public TaskRunner(int threads) {
+        AtomicInteger n = new AtomicInteger(1);
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "task-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts task as the running task of group.
+     *
+     * @param key     Identifies the operation and its inputs; equal keys are deduplicated
+     * @param label   Shown with the progress
+     * @param onDone  Receives the result on the EDT
+     * @param onError Receives a failure on the EDT
+     * @return false if key was already running in group, so nothing was started
+     */
+    public <T> boolean submit(String group, String key, String label, Task<T> task,
+                              Consumer<T> onDone, Consumer<Exception> onError) {
+        Job current = running.get(group);
+        if (current != null && current.key.equals(key)) return false;
+        if (current != null) current.token.cancel();
+
+        Job job = new Job(key, label);
+        running.put(group, job);
+        fireChanged();
+
+        pool.execute(() -> {
+            T result = null;
+            Exception error = null;
+            try {
+                result = TileScheduler.call(job.token, task::run);
+            } catch (Exception e) {
+                error = e;
+            } catch (Throwable t) {
+                error = new ExecutionException(t);
+            }
+            T r = result;
+            Exception e = error;
+            SwingUtilities.invokeLater(() -> {
+                if (running.get(group) == job) running.remove(group);
+                fireChanged();
+                if (e instanceof CancellationException || job.token.isCancelled()) return;
+                if (e != null) onError.accept(e);
+                else onDone.accept(r);
+            });
+        });
+        return true;
+    }
+
+    /** Cancels the running task of group, if any. */
+    public void cancel(String group) {
+        Job job = running.get(group);
+        if (job != null) job.token.cancel();
+    }
+
+    public boolean isRunning(String group) {
+        return running.containsKey(group);
+    }
+
+    /** Fraction done of group's running task, or -1 when it is idle. */
+    public double getProgress(String group) {
+        Job job = running.get(group);
+        return job == null ? -1 : job.token.getProgress();
+    }
+
+    /** Label of group's running task, or null when it is idle. */
+    public String getLabel(String group) {
+        Job job = running.get(group);
+        return job == null ? null : job.label;
+    }
+
+    /** Called on the EDT whenever a task starts or ends. */
+    public void addListener(Runnable r) {
+        listeners.add(r);
+    }
+
+    private void fireChanged() {
+        for (Runnable r : listeners) r.run();
+    }
+}
@@ -0,0 +1,255 @@
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * ThumbnailService
+ * ----------------------------
+ * Asynchronous thumbnail loader:
+ * - decodes with source subsampling, so full-size images are never built
+ * - runs on a small fixed pool, newest requests first (what was just scrolled
+ *   into view), and delivers results on the EDT
+ * - keeps thumbnails in an on-disk cache keyed by path, size and mtime;
+ *   prune drops the entries of files that are gone or have changed
+ * - keeps a byte-bounded in-memory LRU for the session
+ *
+ * Requests for the same file while one is in flight share its result.
+ */
+public class ThumbnailService {
+
+    private final File cacheDir;
+    private final int maxW, maxH;
+    private final long memoryBudget;
+    private final ThreadPoolExecutor pool;
+
+    // key -> thumbnail, least recently used first; guarded by itself
+    private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    // key -> callbacks waiting for a load in flight; guarded by itself
+    private final Map<String, List<Consumer<BufferedImage>>> inFlight = new HashMap<>();
+
+    /**
+     * @param cacheDir     Directory for cached thumbnails (created on demand)
+     * @param maxW         Thumbnail bounding box width
+     * @param maxH         Thumbnail bounding box height
+     * @param memoryBudget Bytes of decoded thumbnails kept in memory
+     * @param threads      Decoder threads
+     */
+    public ThumbnailService(File cacheDir, int maxW, int maxH, long memoryBudget, int threads) {
+        this.cacheDir = cacheDir;
+        this.maxW = maxW;
+        this.maxH = maxH;
+        this.memoryBudget = memoryBudget;
+
+        AtomicInteger n = new AtomicInteger(1);
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LifoQueue(), r -> {
+            Thread t = new Thread(r, "thumbnail-" + n.getAndIncrement());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /** Thumbnail already in memory, or null. Never blocks. */
+    public BufferedImage getCached(File file) {
+        return getCached(key(file));
+    }
+
+    /** getCached by a key from {@link #key(File)}; no file system access. */
+    public BufferedImage getCached(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    /**
+     * Loads the thumbnail of file in the background and passes it to callback
+     * on the EDT (null if the file cannot be decoded). Served synchronously
+     * from memory when possible.
+     */
+    public void request(File file, Consumer<BufferedImage> callback) {
+        request(file, key(file), callback);
+    }
+
+    /** request with file's key from {@link #key(File)}, computed earlier. */
+    public void request(File file, String key, Consumer<BufferedImage> callback) {
+        BufferedImage hit;
+        synchronized (memory) {
+            hit = memory.get(key);
+        }
+        if (hit != null) {
+            callback.accept(hit);
+            return;
+        }
+
+        synchronized (inFlight) {
+            List<Consumer<BufferedImage>> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+        }
+        pool.execute(new Load(file, key));
+    }
+
+    /** Drops queued (not yet started) requests, e.g. when the view is rebuilt. */
+    public void cancelPending() {
+        List<Runnable> dropped = new ArrayList<>();
+        pool.getQueue().drainTo(dropped);
+        synchronized (inFlight) {
+            for (Runnable r : dropped) inFlight.remove(((Load) r).key);
+        }
+    }
+
+    /**
+     * Deletes, in the background, every cached thumbnail that belongs to none
+     * of files in their current state, i.e. thumbnails of files deleted or
+     * changed since. files must be every source the cache serves.
+     */
+    public void prune(Collection<File> files) {
+        List<File> sources = new ArrayList<>(files);
+        Thread t = new Thread(() -> {
+            Set<String> keep = new HashSet<>();
+            for (File f : sources) keep.add(digest(key(f)) + ".png");
+            File[] cached = cacheDir.listFiles(File::isFile);
+            if (cached == null) return;
+            // temp files of a load still running are young; old ones were left by a crash
+            long staleTemp = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10);
+            for (File c : cached) {
+                String name = c.getName();
+                boolean orphan = name.endsWith(".png") ? !keep.contains(name)
+                        : name.endsWith(".tmp") && c.lastModified() < staleTemp;
+                if (orphan && !c.delete()) System.err.println("Could not delete stale thumbnail " + c);
+            }
+        }, "thumbnail-prune");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /** One queued thumbnail load. */
+    private final class Load implements Runnable {
+        final File file;
+        final String key;
+
+        Load(File file, String key) {
+            this.file = file;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            BufferedImage thumb = null;
+            try {
+                thumb = load(file, key);
+            } catch (Exception e) {
+                System.err.println("Thumbnail failed for " + file + ": " + e.getMessage());
+            }
+            if (thumb != null) remember(key, thumb);
+
+            List<Consumer<BufferedImage>> waiting;
+            synchronized (inFlight) {
+                waiting = inFlight.remove(key);
+            }
+            BufferedImage result = thumb;
+            if (waiting != null) SwingUtilities.invokeLater(() -> waiting.forEach(c -> c.accept(result)));
+        }
+    }
+
+    private BufferedImage load(File file, String key) throws IOException {
+        File cached = new File(cacheDir, digest(key) + ".png");
+        if (cached.isFile()) {
+            BufferedImage img = ImageIO.read(cached);
+            if (img != null) return img;
+        }
+
+        BufferedImage thumb = decodeSubsampled(file);
+        if (thumb == null) return null;
+
+        // write to a temp file and move, so a concurrent reader never sees half a file
+        Files.createDirectories(cacheDir.toPath());
+        File tmp = new File(cacheDir, cached.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        if (ImageIO.write(thumb, "png", tmp)) {
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            tmp.delete();
+        }
+        return thumb;
+    }
+
+    /** Decodes every n-th row and column (about twice the thumbnail size), then scales down smoothly. */
+    private BufferedImage decodeSubsampled(File file) throws IOException {
+        BufferedImage img = ImageUtils.loadImage(file, 2 * maxW, 2 * maxH);
+        return img == null ? null : ImageUtils.createProxy(img, maxW, maxH);
+    }
+
+    private void remember(String key, BufferedImage thumb) {
+        synchronized (memory) {
+            BufferedImage old = memory.put(key, thumb);
+            if (old != null) memoryBytes -= bytes(old);
+            memoryBytes += bytes(thumb);
+            Iterator<BufferedImage> it = memory.values().iterator();
+            while (memoryBytes > memoryBudget && it.hasNext()) {
+                memoryBytes -= bytes(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static long bytes(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() * 4;
+    }
+
+    /**
+     * Cache key of file in its current state; a changed file (size or mtime)
+     * gets a new key, so stale entries are never served. Costs two file
+     * system calls, so views compute it once per listing.
+     */
+    public static String key(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    private static String digest(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : d) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Work queue that hands out the most recently submitted task first. */
+    private static final class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable r) {
+            return offerFirst(r);
+        }
+
+        @Override
+        public boolean add(Runnable r) {
+            return offerFirst(r);
+        }
+
+        @Override
+        public void put(Runnable r) throws InterruptedException {
+            putFirst(r);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TileScheduler
+ * ----------------------------
+ * Splits an image into horizontal row bands and runs them on a shared
+ * ForkJoinPool. Filters read their input directly from the (read-only) source
+ * array, so a band [y0, y1) simply reads `halo` extra rows above and below;
+ * the halo also sets the minimum band height so that per-band setup work
+ * (e.g. priming a running sum) stays small relative to the band.
+ *
+ * Every band writes a disjoint set of destination rows, so the output is
+ * identical whatever the parallelism is. The default parallelism is the number
+ * of cores, or the "tiles.parallelism" system property when set.
+ *
+ * Work started through {@link #call(CancellationToken, Callable)} can be
+ * cancelled cooperatively: the token is checked before every band starts, and
+ * a cancelled token makes forEachBand throw CancellationException. The token
+ * also collects fractional progress: every finished band advances it, within
+ * the range of the innermost {@link #inStage(double, double, StageWork)} (the whole 0..1
+ * when the work declares no stages).
+ */
+public final class TileScheduler {
+
+    /** Work for the destination rows y0 (inclusive) to y1 (exclusive). */
+    public interface BandTask {
+        void run(int y0, int y1);
+    }
+
+    /** Cooperative cancellation flag, checked at band boundaries, plus the progress of the work. */
+    public static final class CancellationToken {
+        private volatile boolean cancelled;
+        private volatile double progress;
+        // progress range of the current stage; only touched by the thread that started the work
+        private double lo = 0, hi = 1;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Fraction of the work done, from 0 to 1; never decreases. */
+        public double getProgress() {
+            return progress;
+        }
+
+        private synchronized void report(double p) {
+            if (p > progress) progress = Math.min(1, p);
+        }
+    }
+
+    /** Work run inside a progress stage, returning a value. */
+    public interface StageWork<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /** Work run inside a progress stage. */
+    public interface StageAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    // a progress range entered with stage(); closing it completes it and restores the enclosing range
+    private static final class Stage implements AutoCloseable {
+        private final CancellationToken token;
+        private final double lo, hi;
+
+        private Stage(CancellationToken token, double lo, double hi) {
+            this.token = token;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public void close() {
+            if (token == null) return;
+            token.report(token.hi);
+            token.lo = lo;
+            token.hi = hi;
+        }
+    }
+
+    private static final int MIN_BAND = 16;
+
+    // token of the work running on this thread, captured by forEachBand for its bands
+    private static final ThreadLocal<CancellationToken> TOKEN = new ThreadLocal<>();
+
+    private static int parallelism =
+            Math.max(1, Integer.getInteger("tiles.parallelism", Runtime.getRuntime().availableProcessors()));
+    private static ForkJoinPool pool;
+
+    private TileScheduler() {}
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /** Number of worker threads; 1 runs every band on the calling thread. */
+    public static synchronized void setParallelism(int n) {
+        n = Math.max(1, n);
+        if (n == parallelism) return;
+        parallelism = n;
+        if (pool != null) pool.shutdown();
+        pool = null;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+
+    /**
+     * Runs work on the calling thread with token governing every forEachBand
+     * it starts (nested calls included).
+     *
+     * @throws CancellationException if the token is cancelled before work completes
+     */
+    public static <T> T call(CancellationToken token, Callable<T> work) throws Exception {
+        CancellationToken previous = TOKEN.get();
+        TOKEN.set(token);
+        try {
+            T result = work.call();
+            checkCancelled(token);
+            return result;
+        } finally {
+            if (previous == null) TOKEN.remove();
+            else TOKEN.set(previous);
+        }
+    }
+
+    /**
+     * Token of the work running on the calling thread, or null; lets work
+     * handed to other threads run under the same token through call().
+     */
+    public static CancellationToken currentToken() {
+        return TOKEN.get();
+    }
+
+    /** Throws CancellationException if the current thread's work has been cancelled. */
+    public static void checkCancelled() {
+        checkCancelled(TOKEN.get());
+    }
+
+    private static void checkCancelled(CancellationToken token) {
+        if (token != null && token.isCancelled()) throw new CancellationException();
+    }
+
+    /**
+     * Runs work with progress reporting of the current thread's work narrowed
+     * to [from, to) of the enclosing stage, e.g. for the second of two passes:
+     * {@code inStage(0.5, 1, () -> pass2())}. The stage counts as complete
+     * when work returns. Stages nest; without a token only work runs.
+     */
+    @SuppressWarnings("try")   // the stage only brackets work, which never touches it
+    public static <T, E extends Exception> T inStage(double from, double to, StageWork<T, E> work) throws E {
+        try (Stage s = stage(from, to)) {
+            return work.run();
+        }
+    }
+
+    /** {@link #inStage(double, double, StageWork)} for work without a result. */
+    @SuppressWarnings("try")
+    public static <E extends Exception> void inStage(double from, double to, StageAction<E> work) throws E {
+        try (Stage s = stage(from, to)) {
+            work.run();
+        }
+    }
+
+    private static Stage stage(double from, double to) {
+        CancellationToken token = TOKEN.get();
+        if (token == null) return new Stage(null, 0, 0);
+        Stage enclosing = new Stage(token, token.lo, token.hi);
+        double span = token.hi - token.lo;
+        token.lo = enclosing.lo + span * from;
+        token.hi = enclosing.lo + span * to;
+        token.report(token.lo);
+        return enclosing;
+    }
+
+    /** Reports fraction (0..1) of the current stage done, for loops that don't run through forEachBand. */
+    public static void progress(double fraction) {
+        CancellationToken token = TOKEN.get();
+        if (token != null) token.report(token.lo + (token.hi - token.lo) * fraction);
+    }
+
+    /**
+     * Runs task over [0, height) in row bands.
+     *
+     * @param height Number of destination rows
+     * @param halo   Rows the kernel reads beyond each side of a band (its radius)
+     * @param task   Band work; must only write rows inside its band
+     */
+    public static void forEachBand(int height, int halo, BandTask task) {
+        forEachBand(0, height, halo, task);
+    }
+
+    /** Same as {@link #forEachBand(int, int, BandTask)} for the rows [from, to). */
+    public static void forEachBand(int from, int to, int halo, BandTask task) {
+        if (to <= from) return;
+        CancellationToken token = TOKEN.get();
+        checkCancelled(token);
+        int threads = getParallelism();
+        int grain = Math.max(Math.max(MIN_BAND, 4 * halo), (to - from + threads * 4 - 1) / (threads * 4));
+        if (token == null && (threads == 1 || to - from <= grain)) {
+            task.run(from, to);
+            return;
+        }
+        Progress progress = token == null ? null : new Progress(token, to - from);
+        if (threads == 1 || to - from <= grain) {
+            // still stop (and report) between bands when cancellable
+            for (int y = from; y < to; y += grain) {
+                checkCancelled(token);
+                int y1 = Math.min(to, y + grain);
+                task.run(y, y1);
+                progress.done(y1 - y);
+            }
+            return;
+        }
+        pool().invoke(new Band(from, to, grain, task, token, progress));
+    }
+
+    /** Rows finished by one forEachBand, mapped into the caller's current stage. */
+    private static final class Progress {
+        private final CancellationToken token;
+        private final double lo, span;
+        private final AtomicInteger rows = new AtomicInteger();
+        private final int total;
+
+        Progress(CancellationToken token, int total) {
+            this.token = token;
+            this.lo = token.lo;
+            this.span = token.hi - token.lo;
+            this.total = total;
+        }
+
+        void done(int n) {
+            token.report(lo + span * rows.addAndGet(n) / total);
+        }
+    }
+
+    private static final class Band extends RecursiveAction {
+        private final int y0, y1, grain;
+        private final BandTask task;
+        private final CancellationToken token;
+        private final Progress progress;
+
+        Band(int y0, int y1, int grain, BandTask task, CancellationToken token, Progress progress) {
+            this.y0 = y0;
+            this.y1 = y1;
+            this.grain = grain;
+            this.task = task;
+            this.token = token;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            checkCancelled(token);
+            if (y1 - y0 <= grain) {
+                task.run(y0, y1);
+                if (progress != null) progress.done(y1 - y0);
+                return;
+            }
+            int mid = (y0 + y1) >>> 1;
+            invokeAll(new Band(y0, mid, grain, task, token, progress), new Band(mid, y1, grain, task, token, progress));
+        }
+    }
+}
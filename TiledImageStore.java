@@ -0,0 +1,521 @@
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * TiledImageStore
+ * ----------------------------
+ * Out-of-core image for scans far larger than the heap: packed INT RGB / ARGB
+ * pixels kept in square tiles of a memory-mapped scratch file.
+ * - a gray store (map's result for filters with gray output, e.g. sobel)
+ *   keeps its levels as opaque packed gray pixels but reads and renders as
+ *   TYPE_BYTE_GRAY, so it encodes to the same 8-bit gray PNG as the in-memory
+ *   filter's result
+ * - tiles are mapped on first use through FileChannel.map; an LRU of mapped
+ *   tiles stays resident, older mappings are dropped and their pages left to
+ *   the OS, so the heap holds only the tile table
+ * - it is a RenderedImage: getData(Rectangle) / setData(Raster) copy pixels in
+ *   and out as packed-int rasters, and writers that pull the image by rows
+ *   (ImageIO's PNG writer) encode it without ever building it on the heap
+ * - map: streams an existing BufferedImage filter over the image block by
+ *   block; each block is read with a halo of context pixels and only its
+ *   centre is written back, so the result equals filtering the whole image
+ *   while heap use stays at a few blocks
+ *
+ * Reads and writes of disjoint regions may run on several threads.
+ * close() deletes the scratch file.
+ */
+public class TiledImageStore implements RenderedImage, AutoCloseable {
+
+    /** A filter applied to one block; must only look at pixels within the halo given to map. */
+    public interface Filter {
+        BufferedImage apply(BufferedImage block) throws Exception;
+    }
+
+    public static final int DEFAULT_TILE = 512;
+    public static final int DEFAULT_RESIDENT = 64;
+
+    private final int width, height, tileSize, tilesX, tilesY;
+    private final boolean hasAlpha, gray;
+    private final ColorModel colorModel;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int maxResident;
+
+    // tile index -> its mapping, least recently used first
+    private final Map<Integer, IntBuffer> resident;
+    private long mapCount;
+
+    /** Store with the default tile size and resident count, in the temp directory. */
+    public TiledImageStore(int width, int height, boolean hasAlpha) throws IOException {
+        this(width, height, hasAlpha, DEFAULT_TILE, DEFAULT_RESIDENT, null);
+    }
+
+    /**
+     * @param tileSize    Tile side in pixels
+     * @param maxResident Tiles kept mapped at the same time (raised to three rows of tiles)
+     * @param scratchDir  Directory of the scratch file, or null for the temp directory
+     */
+    public TiledImageStore(int width, int height, boolean hasAlpha, int tileSize, int maxResident,
+                           File scratchDir) throws IOException {
+        this(width, height, hasAlpha, false, tileSize, maxResident, scratchDir);
+    }
+
+    private TiledImageStore(int width, int height, boolean hasAlpha, boolean gray, int tileSize, int maxResident,
+                            File scratchDir) throws IOException {
+        if (width <= 0 || height <= 0 || tileSize <= 0 || maxResident <= 0)
+            throw new IllegalArgumentException("Invalid store size " + width + "x" + height + ", tile " + tileSize);
+        this.width = width;
+        this.height = height;
+        this.hasAlpha = hasAlpha && !gray;
+        this.gray = gray;
+        this.tileSize = tileSize;
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        // three rows of tiles stay mapped, so row-order access and map's halos never remap
+        this.maxResident = Math.max(maxResident, 3 * tilesX);
+        colorModel = gray ? new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel()
+                : this.hasAlpha ? ColorModel.getRGBdefault()
+                : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+        file = File.createTempFile("tiles-", ".raw", scratchDir);
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        // sparse on most file systems: untouched tiles cost no disk
+        raf.setLength((long) tilesX * tilesY * tileSize * tileSize * 4);
+        channel = raf.getChannel();
+        resident = new LinkedHashMap<Integer, IntBuffer>(maxResident * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, IntBuffer> eldest) {
+                return size() > TiledImageStore.this.maxResident;
+            }
+        };
+    }
+
+    /** Copies img into a new store of the same size. */
+    public static TiledImageStore of(BufferedImage img) throws IOException {
+        TiledImageStore s = new TiledImageStore(img.getWidth(), img.getHeight(), img.getColorModel().hasAlpha());
+        s.setImage(img, 0, 0);
+        return s;
+    }
+
+    /**
+     * Decodes file into a new store, one strip of rows at a time
+     * (ImageUtils.loadRegion), so only a strip of about stripBytes is on the
+     * heap. Readers without random access (PNG, JPEG) decode from the top for
+     * every strip, so larger strips decode faster.
+     *
+     * @return null if no reader understands the file
+     */
+    public static TiledImageStore read(File file, long stripBytes) throws IOException {
+        java.awt.Dimension size = ImageUtils.probeSize(file);
+        if (size == null) return null;
+        int rows = (int) Math.max(DEFAULT_TILE, Math.min(size.height, stripBytes / 4 / size.width));
+        rows -= rows % DEFAULT_TILE;
+
+        TiledImageStore s = null;
+        try {
+            for (int y = 0; y < size.height; y += rows) {
+                int h = Math.min(rows, size.height - y);
+                Rectangle region = new Rectangle(0, y, size.width, h);
+                BufferedImage strip = TileScheduler.inStage((double) y / size.height, (double) (y + h) / size.height,
+                        () -> ImageUtils.loadRegion(file, region));
+                if (strip == null) throw new IOException("unsupported image format");
+                if (s == null) s = new TiledImageStore(size.width, size.height, strip.getColorModel().hasAlpha());
+                s.setImage(strip, 0, y);
+            }
+            return s;
+        } catch (IOException | RuntimeException | Error e) {
+            if (s != null) s.close();
+            throw e;
+        }
+    }
+
+    public boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    /** True for a store of gray levels, see the class comment. */
+    public boolean isGray() {
+        return gray;
+    }
+
+    /** BufferedImage type matching the stored pixels (INT_ARGB, INT_RGB or BYTE_GRAY). */
+    public int getImageType() {
+        return gray ? BufferedImage.TYPE_BYTE_GRAY
+                : hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    /** Tiles mapped since the store was created; more than the tile count means tiles were evicted and mapped again. */
+    public synchronized long getMapCount() {
+        return mapCount;
+    }
+
+    // ---------- pixel access ----------
+
+    /** Reads a rectangle of packed pixels into dst (scan elements per row, starting at off). */
+    public void read(int x, int y, int w, int h, int[] dst, int off, int scan) {
+        checkBounds(x, y, w, h);
+        copy(x, y, w, h, dst, off, scan, false);
+    }
+
+    /** Writes a rectangle of packed pixels from src (scan elements per row, starting at off). */
+    public void write(int x, int y, int w, int h, int[] src, int off, int scan) {
+        checkBounds(x, y, w, h);
+        copy(x, y, w, h, src, off, scan, true);
+    }
+
+    /** Heap copy of region as an image of getImageType(). */
+    public BufferedImage getImage(Rectangle region) {
+        BufferedImage img = new BufferedImage(region.width, region.height, getImageType());
+        if (gray) {
+            readGray(region, ((DataBufferByte) img.getRaster().getDataBuffer()).getData());
+            return img;
+        }
+        read(region.x, region.y, region.width, region.height,
+                ((DataBufferInt) img.getRaster().getDataBuffer()).getData(), 0, region.width);
+        return img;
+    }
+
+    /** Writes all of img with its top-left corner at (x, y); any image type. */
+    public void setImage(BufferedImage img, int x, int y) {
+        setImage(img, new Rectangle(img.getWidth(), img.getHeight()), x, y);
+    }
+
+    /** Writes the part of img inside from with its top-left corner at (x, y). */
+    private void setImage(BufferedImage img, Rectangle from, int x, int y) {
+        checkBounds(x, y, from.width, from.height);
+        if (gray && !isGray(img))
+            throw new IllegalArgumentException("A gray store only takes gray images");
+        PixelBuffer pb = PixelBuffer.wrap(img);
+        if (pb != null && pb.isPackedRGB() && (pb.hasAlpha || !hasAlpha)) {
+            copy(x, y, from.width, from.height, pb.ints, pb.rowStart(from.y) + from.x, pb.scanline, true);
+            return;
+        }
+        // packed row by row: INT_RGB gets an opaque top byte, other supported layouts
+        // are read as samples (gray replicated, as drawImage does), the rest through getRGB
+        // rows are gathered up to the next tile boundary, so each tile is mapped once per band
+        int w = from.width;
+        int[] band = new int[w * Math.min(tileSize, from.height)];
+        int[] samples = pb != null && !pb.isPackedRGB() ? new int[pb.width * pb.bands] : null;
+        int first = 0;
+        for (int r = 0; r < from.height; r++) {
+            int sy = from.y + r, o = (r - first) * w;
+            if (pb == null) {
+                img.getRGB(from.x, sy, w, 1, band, o, w);
+            } else if (samples == null) {
+                int p = pb.rowStart(sy) + from.x;
+                for (int i = 0; i < w; i++) band[o + i] = pb.ints[p + i] | 0xFF000000;
+            } else {
+                pb.readRow(sy, samples);
+                int nb = pb.bands;
+                for (int i = 0, k = from.x * nb; i < w; i++, k += nb) {
+                    if (nb == 1) band[o + i] = 0xFF000000 | samples[k] * 0x010101;
+                    else band[o + i] = (nb == 4 ? samples[k + 3] << 24 : 0xFF000000)
+                            | samples[k] << 16 | samples[k + 1] << 8 | samples[k + 2];
+                }
+            }
+            if ((y + r + 1) % tileSize == 0 || r == from.height - 1) {
+                copy(x, y + first, w, r + 1 - first, band, 0, w, true);
+                first = r + 1;
+            }
+        }
+    }
+
+    private static boolean isGray(BufferedImage img) {
+        return img.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+    }
+
+    // gray levels of region into dst (one byte per pixel), a tile row at a time
+    private void readGray(Rectangle r, byte[] dst) {
+        checkBounds(r.x, r.y, r.width, r.height);
+        int[] band = new int[r.width * Math.min(tileSize, r.height)];
+        for (int y = r.y; y < r.y + r.height; ) {
+            int h = Math.min(r.y + r.height, (y / tileSize + 1) * tileSize) - y;
+            copy(r.x, y, r.width, h, band, 0, r.width, false);
+            for (int i = 0, o = (y - r.y) * r.width; i < h * r.width; i++) dst[o + i] = (byte) band[i];
+            y += h;
+        }
+    }
+
+    private void checkBounds(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height)
+            throw new IndexOutOfBoundsException("Region " + x + "," + y + " " + w + "x" + h
+                    + " outside " + width + "x" + height);
+    }
+
+    // copies between buf and every tile the rectangle touches, one tile row segment at a time
+    private void copy(int x, int y, int w, int h, int[] buf, int off, int scan, boolean write) {
+        if (w == 0 || h == 0) return;
+        for (int ty = y / tileSize; ty <= (y + h - 1) / tileSize; ty++) {
+            int y0 = Math.max(y, ty * tileSize), y1 = Math.min(y + h, (ty + 1) * tileSize);
+            for (int tx = x / tileSize; tx <= (x + w - 1) / tileSize; tx++) {
+                int x0 = Math.max(x, tx * tileSize), x1 = Math.min(x + w, (tx + 1) * tileSize);
+                IntBuffer t = tile(tx, ty);
+                for (int yy = y0; yy < y1; yy++) {
+                    int ti = (yy - ty * tileSize) * tileSize + (x0 - tx * tileSize);
+                    int bi = off + (yy - y) * scan + (x0 - x);
+                    if (write) t.put(ti, buf, bi, x1 - x0);
+                    else t.get(ti, buf, bi, x1 - x0);
+                }
+            }
+        }
+    }
+
+    // mapping of one tile; an evicted mapping stays valid for threads still holding it
+    private synchronized IntBuffer tile(int tx, int ty) {
+        int index = ty * tilesX + tx;
+        IntBuffer t = resident.get(index);
+        if (t != null) return t;
+        long bytes = (long) tileSize * tileSize * 4;
+        try {
+            t = channel.map(FileChannel.MapMode.READ_WRITE, index * bytes, bytes)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map tile " + tx + "," + ty + " of " + file, e);
+        }
+        mapCount++;
+        resident.put(index, t);
+        return t;
+    }
+
+    // ---------- streaming filters ----------
+
+    /**
+     * Applies filter to the whole image, one tile at a time, into a new store.
+     * Each tile is handed to the filter grown by halo pixels on every side
+     * (clipped to the image), so a filter whose output pixel depends only on
+     * input pixels within halo gives the same result as on the whole image.
+     * Blocks are processed in order; the filters parallelize each block
+     * through TileScheduler. Progress and cancellation use the current token.
+     * The result is a gray store when the filter's output is gray.
+     */
+    public TiledImageStore map(int halo, Filter filter) throws Exception {
+        TiledImageStore dst = null;
+        try {
+            int total = tilesX * tilesY, done = 0;
+            for (int ty = 0; ty < tilesY; ty++) {
+                for (int tx = 0; tx < tilesX; tx++) {
+                    TileScheduler.checkCancelled();
+                    Rectangle core = new Rectangle(tx * tileSize, ty * tileSize,
+                            Math.min(tileSize, width - tx * tileSize), Math.min(tileSize, height - ty * tileSize));
+                    Rectangle ext = new Rectangle(core.x - halo, core.y - halo, core.width + 2 * halo, core.height + 2 * halo)
+                            .intersection(new Rectangle(width, height));
+                    BufferedImage out = TileScheduler.inStage((double) done / total, (double) (done + 1) / total,
+                            () -> filter.apply(getImage(ext)));
+                    if (dst == null) {
+                        dst = new TiledImageStore(width, height, hasAlpha, isGray(out), tileSize, maxResident, file.getParentFile());
+                    }
+                    dst.setImage(out, new Rectangle(core.x - ext.x, core.y - ext.y, core.width, core.height), core.x, core.y);
+                    done++;
+                }
+            }
+            return dst;
+        } catch (Exception | Error e) {
+            if (dst != null) dst.close();
+            throw e;
+        }
+    }
+
+    /** ImageEnhancer.enhance, streamed (point operation, no halo). */
+    public TiledImageStore enhance(float contrast, int brightness) throws Exception {
+        return map(0, b -> ImageEnhancer.enhance(b, contrast, brightness, b));
+    }
+
+    /** ImageSharpener.sharpen, streamed (3x3 kernel). */
+    public TiledImageStore sharpen(float strength) throws Exception {
+        return map(1, b -> ImageSharpener.sharpen(b, strength));
+    }
+
+    /** ImageBlurrer.blurRadius, streamed (box of the given radius). */
+    public TiledImageStore blur(int radius) throws Exception {
+        return map(Math.max(0, radius), b -> ImageBlurrer.blurRadius(b, radius));
+    }
+
+    /**
+     * EdgeDetector.sobel, streamed (3x3 kernels), into a gray store. Canny is
+     * not streamable: its hysteresis follows edges across the whole image.
+     */
+    public TiledImageStore sobel() throws Exception {
+        return map(1, EdgeDetector::sobel);
+    }
+
+    // ---------- RenderedImage ----------
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return colorModel.createCompatibleSampleModel(tileSize, tileSize);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return tilesX;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return tilesY;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    /** Copy of one tile (edge tiles are clipped to the image). */
+    @Override
+    public Raster getTile(int tx, int ty) {
+        return getData(new Rectangle(tx * tileSize, ty * tileSize, tileSize, tileSize));
+    }
+
+    /** Copy of the whole image; only for images that fit on the heap. */
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(width, height));
+    }
+
+    /** Copy of rect (clipped to the image) as a packed-int (gray: byte) raster located at rect's position. */
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle r = rect.intersection(new Rectangle(width, height));
+        if (r.isEmpty()) throw new IllegalArgumentException("Region outside the image: " + rect);
+        WritableRaster ras = colorModel.createCompatibleWritableRaster(r.width, r.height);
+        if (gray) readGray(r, ((DataBufferByte) ras.getDataBuffer()).getData());
+        else read(r.x, r.y, r.width, r.height, ((DataBufferInt) ras.getDataBuffer()).getData(), 0, r.width);
+        return ras.createWritableTranslatedChild(r.x, r.y);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) return (WritableRaster) getData();
+        Rectangle r = raster.getBounds().intersection(new Rectangle(width, height));
+        if (!r.isEmpty()) raster.setRect(getData(r));
+        return raster;
+    }
+
+    /**
+     * Writes raster at its own position (clipped to the image). The raster
+     * must have this store's layout, e.g. one from getData or from an image
+     * of getImageType(); other images go through setImage.
+     */
+    public void setData(Raster raster) {
+        if (!colorModel.isCompatibleRaster(raster))
+            throw new IllegalArgumentException("Raster layout does not match the store; use setImage");
+        Rectangle r = raster.getBounds().intersection(new Rectangle(width, height));
+        if (r.isEmpty()) return;
+        for (int y = r.y; y < r.y + r.height; ) {
+            int h = Math.min(r.y + r.height, (y / tileSize + 1) * tileSize) - y;
+            Object data = raster.getDataElements(r.x, y, r.width, h, null);
+            int[] band;
+            if (gray) {
+                byte[] levels = (byte[]) data;
+                band = new int[levels.length];
+                for (int i = 0; i < levels.length; i++) band[i] = 0xFF000000 | (levels[i] & 0xFF) * 0x010101;
+            } else {
+                band = (int[]) data;
+            }
+            copy(r.x, y, r.width, h, band, 0, r.width, true);
+            y += h;
+        }
+    }
+
+    // ---------- lifecycle ----------
+
+    /** Releases the mappings and deletes the scratch file. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            resident.clear();
+        }
+        try {
+            channel.close();
+            raf.close();
+        } finally {
+            // a mapping still referenced elsewhere may keep the file open on some platforms
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TiledImageStore[%dx%d%s, %dx%d tiles of %d, %s]",
+                width, height, gray ? " gray" : "", tilesX, tilesY, tileSize, file.getName());
+    }
+}
@@ -3,104 +3,109 @@ import java.awt.image.BufferedImage;
 
 /**
  * TransformProcessor
- * - dftMagnitude: compute DFT magnitude (visual) on small downsample to keep it fast
- * - dctMagnitude: compute DCT magnitude visualization
+ * - dftMagnitude: centred FFT log-magnitude spectrum at full resolution
+ * - dctMagnitude: full-resolution DCT-II log-magnitude
+ * - dctBlockMagnitude: per-block 8x8 DCT coefficient energy (JPEG view)
  * - determinantResponse: compute simple 3x3 determinant "response" visualization
  *
  * Implementations are simple but useful as visualization tools.
  */
 public class TransformProcessor {
 
-    // downsample factor for speed
-    private static final int MAX_SIDE = 128;
-
+    /**
+     * Log-magnitude spectrum of the full-resolution luminance, computed with a
+     * 2D FFT. The image is zero-padded to power-of-two sides and the result is
+     * fftshift-ed so the DC term sits in the centre.
+     */
     public static BufferedImage dftMagnitude(BufferedImage src) {
-        BufferedImage gray = toGrayScaled(src, MAX_SIDE);
-        int w = gray.getWidth(), h = gray.getHeight();
-        double[][] real = new double[w][h];
-        double[][] imag = new double[w][h];
+        int w = src.getWidth(), h = src.getHeight();
+        int pw = FFT.nextPow2(w), ph = FFT.nextPow2(h);
+        byte[] g = PixelBuffer.toGray(src);
 
-        for (int u=0; u<w; u++) {
-            for (int v=0; v<h; v++) {
-                double sumRe = 0, sumIm = 0;
-                for (int x=0; x<w; x++) {
-                    for (int y=0; y<h; y++) {
-                        double val = gray.getRaster().getSample(x,y,0);
-                        double angle = 2*Math.PI*((u*x)/(double)w + (v*y)/(double)h);
-                        sumRe += val * Math.cos(angle);
-                        sumIm -= val * Math.sin(angle);
-                    }
-                }
-                real[u][v] = sumRe;
-                imag[u][v] = sumIm;
-            }
-        }
+        float[] re = new float[pw * ph], im = new float[pw * ph];
+        for (int y=0; y<h; y++) for (int x=0; x<w; x++) re[y*pw + x] = g[y*w + x] & 0xFF;
+        g = null;
 
-        double max = 1e-9;
-        double[][] mag = new double[w][h];
-        for (int u=0; u<w; u++) for (int v=0; v<h; v++) {
-            mag[u][v] = Math.log(1 + Math.hypot(real[u][v], imag[u][v]));
-            if (mag[u][v] > max) max = mag[u][v];
-        }
+        TileScheduler.inStage(0.05, 0.85, () -> FFT.transform2D(re, im, pw, ph));
 
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
-        for (int u=0; u<w; u++) for (int v=0; v<h; v++) {
-            int val = (int)( (mag[u][v]/max) * 255 );
-            out.getRaster().setSample(u, v, 0, val);
-        }
+        // log magnitude, reusing re as storage
+        TileScheduler.inStage(0.85, 0.95, () -> TileScheduler.forEachBand(ph, 0, (y0, y1) -> {
+            for (int i=y0*pw; i<y1*pw; i++) re[i] = (float) Math.log1p(Math.hypot(re[i], im[i]));
+        }));
+        float max = 1e-9f;
+        for (float m : re) if (m > max) max = m;
+
+        BufferedImage out = PixelBuffer.newGray(pw, ph);
+        byte[] o = PixelBuffer.grayData(out);
+        float scale = 255f / max;
+        TileScheduler.inStage(0.95, 1, () -> TileScheduler.forEachBand(ph, 0, (y0, y1) -> {
+            for (int y=y0; y<y1; y++) {
+                int sy = ((y + ph/2) & (ph-1)) * pw;
+                for (int x=0; x<pw; x++) o[y*pw + x] = (byte) (int) (re[sy + ((x + pw/2) & (pw-1))] * scale);
+            }
+        }));
         return out;
     }
 
+    /** Log-magnitude of the full-resolution 2D DCT-II of the luminance (DC top-left). */
     public static BufferedImage dctMagnitude(BufferedImage src) {
-        BufferedImage gray = toGrayScaled(src, MAX_SIDE);
-        int N = gray.getWidth();
-        int M = gray.getHeight();
-        double[][] f = new double[N][M];
-        for (int i=0;i<N;i++) for (int j=0;j<M;j++) f[i][j] = gray.getRaster().getSample(i,j,0);
-
-        double[][] F = new double[N][M];
-        double max = 1e-9;
-        for (int u=0; u<N; u++) {
-            for (int v=0; v<M; v++) {
-                double sum = 0;
-                for (int x=0; x<N; x++) for (int y=0;y<M;y++)
-                    sum += f[x][y] * Math.cos(Math.PI*(2*x+1)*u/(2.0*N)) * Math.cos(Math.PI*(2*y+1)*v/(2.0*M));
-                F[u][v] = Math.log(1 + Math.abs(sum));
-                if (F[u][v] > max) max = F[u][v];
-            }
-        }
+        int w = src.getWidth(), h = src.getHeight();
+        float[] f = luminance(src);
+        TileScheduler.inStage(0.05, 0.9, () -> DCT.transform2D(f, w, h));
+        return TileScheduler.inStage(0.9, 1, () -> logImage(f, w, h));
+    }
 
-        BufferedImage out = new BufferedImage(N, M, BufferedImage.TYPE_BYTE_GRAY);
-        for (int u=0; u<N; u++) for (int v=0; v<M; v++) {
-            int val = (int)((F[u][v]/max)*255);
-            out.getRaster().setSample(u, v, 0, val);
-        }
-        return out;
+    /**
+     * JPEG-style view: every 8x8 block is replaced by the log-magnitude of its
+     * own DCT coefficients, at the original resolution.
+     */
+    public static BufferedImage dctBlockMagnitude(BufferedImage src) {
+        int w = src.getWidth(), h = src.getHeight();
+        float[] f = luminance(src);
+        TileScheduler.inStage(0.1, 0.8, () -> DCT.blocks8x8(f, w, h));
+        return TileScheduler.inStage(0.8, 1, () -> logImage(f, w, h));
     }
 
     public static BufferedImage determinantResponse(BufferedImage src) {
         BufferedImage gray = toGrayScaled(src, 512); // moderate size
         int w = gray.getWidth(), h = gray.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] g = PixelBuffer.toGray(gray);
+        BufferedImage out = PixelBuffer.newGray(w, h);
+        byte[] o = PixelBuffer.grayData(out);
 
         for (int y=1;y<h-1;y++) {
+            int up = (y-1)*w, mid = y*w, dn = (y+1)*w;
             for (int x=1;x<w-1;x++) {
-                // 3x3 patch
-                double[][] M = new double[3][3];
-                for (int j=-1;j<=1;j++) for (int i=-1;i<=1;i++) M[j+1][i+1] = gray.getRaster().getSample(x+i, y+j,0);
-                // treat as 3x3 matrix, compute determinant
-                double det = determinant3x3(M);
-                int v = (int)Math.min(255, Math.abs(det)/100.0);
-                out.getRaster().setSample(x,y,0,v);
+                // 3x3 patch treated as a matrix
+                double a = g[up+x-1]&0xFF,  b = g[up+x]&0xFF,  c = g[up+x+1]&0xFF;
+                double d = g[mid+x-1]&0xFF, e = g[mid+x]&0xFF, f = g[mid+x+1]&0xFF;
+                double p = g[dn+x-1]&0xFF,  q = g[dn+x]&0xFF,  r = g[dn+x+1]&0xFF;
+                double det = a*(e*r-f*q) - b*(d*r-f*p) + c*(d*q-e*p);
+                o[mid+x] = (byte) (int)Math.min(255, Math.abs(det)/100.0);
             }
         }
         return out;
     }
 
-    private static double determinant3x3(double[][] m) {
-        return m[0][0]*(m[1][1]*m[2][2]-m[1][2]*m[2][1])
-             - m[0][1]*(m[1][0]*m[2][2]-m[1][2]*m[2][0])
-             + m[0][2]*(m[1][0]*m[2][1]-m[1][1]*m[2][0]);
+    private static float[] luminance(BufferedImage src) {
+        byte[] g = PixelBuffer.toGray(src);
+        float[] f = new float[g.length];
+        for (int i=0;i<g.length;i++) f[i] = g[i] & 0xFF;
+        return f;
+    }
+
+    // log(1 + |c|) scaled so that the maximum maps to 255
+    private static BufferedImage logImage(float[] f, int w, int h) {
+        TileScheduler.forEachBand(h, 0, (y0, y1) -> {
+            for (int i=y0*w; i<y1*w; i++) f[i] = (float) Math.log1p(Math.abs(f[i]));
+        });
+        float max = 1e-9f;
+        for (float m : f) if (m > max) max = m;
+        BufferedImage out = PixelBuffer.newGray(w, h);
+        byte[] o = PixelBuffer.grayData(out);
+        float scale = 255f / max;
+        for (int i=0;i<o.length;i++) o[i] = (byte) (int) (f[i] * scale);
+        return out;
     }
 
     private static BufferedImage toGrayScaled(BufferedImage src, int maxSide) {
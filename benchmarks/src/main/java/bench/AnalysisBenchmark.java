@@ -0,0 +1,76 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AnalysisBenchmark
+ * ----------------------------
+ * Time per call of the analysis tools: histograms, edge detection and the
+ * frequency transforms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx8g"})
+public class AnalysisBenchmark {
+
+    @Benchmark
+    public void histogram(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.HISTOGRAM.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void equalize(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.EQUALIZE.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void equalizePerChannel(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.EQUALIZE_PER_CHANNEL.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void stretch(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.STRETCH.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void sobel(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.SOBEL.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void canny(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.CANNY.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void dftMagnitude(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.DFT_MAGNITUDE.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void dctMagnitude(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.DCT_MAGNITUDE.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void dctBlockMagnitude(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.DCT_BLOCK_MAGNITUDE.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void determinantResponse(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.DETERMINANT_RESPONSE.invokeExact(s.image));
+    }
+}
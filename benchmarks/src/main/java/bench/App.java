@@ -0,0 +1,176 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * App
+ * ----------------------------
+ * Bridge to the application's processors:
+ * - the application is written in the unnamed package, which packaged code
+ *   cannot name, so each operation is looked up once by reflection and kept
+ *   as a static final MethodHandle of type (BufferedImage)Object; the JIT
+ *   treats those as constants, so calls through them inline like direct calls
+ * - fixed arguments (strength, radius, mode, ...) are bound into the handle
+ * - synthetic() builds the deterministic test images
+ */
+final class App {
+
+    static final String AES_KEY = "000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F";
+
+    static final MethodHandle SHARPEN = image("ImageSharpener", "sharpen", float.class, 1.5f);
+    static final MethodHandle BLUR = image("ImageBlurrer", "blurRadius", int.class, 5);
+    static final MethodHandle ENHANCE = image("ImageEnhancer", "enhance", float.class, 1.2f, int.class, 10);
+
+    static final MethodHandle HISTOGRAM = image("HistogramProcessor", "compute");
+    static final MethodHandle EQUALIZE = equalize("LUMINANCE");
+    static final MethodHandle EQUALIZE_PER_CHANNEL = equalize("PER_CHANNEL");
+    static final MethodHandle STRETCH = image("HistogramProcessor", "stretch");
+
+    static final MethodHandle SOBEL = image("EdgeDetector", "sobel");
+    static final MethodHandle CANNY = image("EdgeDetector", "canny");
+
+    static final MethodHandle DFT_MAGNITUDE = image("TransformProcessor", "dftMagnitude");
+    static final MethodHandle DCT_MAGNITUDE = image("TransformProcessor", "dctMagnitude");
+    static final MethodHandle DCT_BLOCK_MAGNITUDE = image("TransformProcessor", "dctBlockMagnitude");
+    static final MethodHandle DETERMINANT_RESPONSE = image("TransformProcessor", "determinantResponse");
+
+    static final MethodHandle ENCODE_JPG = image("ImageCompressor", "encodeJPG", float.class, 0.8f);
+
+    // (byte[])Object, bound to one AESEncryption with AES_KEY
+    static final MethodHandle AES_ENCRYPT;
+    static final MethodHandle AES_DECRYPT;
+    static {
+        try {
+            Class<?> c = Class.forName("AESEncryption");
+            Object aes = MethodHandles.publicLookup()
+                    .findConstructor(c, MethodType.methodType(void.class, String.class))
+                    .invoke(AES_KEY);
+            MethodType bytes = MethodType.methodType(byte[].class, byte[].class);
+            AES_ENCRYPT = bind(MethodHandles.publicLookup().findVirtual(c, "encrypt", bytes), aes);
+            AES_DECRYPT = bind(MethodHandles.publicLookup().findVirtual(c, "decrypt", bytes), aes);
+        } catch (Throwable t) {
+            throw new ExceptionInInitializerError(t);
+        }
+    }
+
+    private static final MethodHandle CONVERT;
+    static {
+        try {
+            CONVERT = MethodHandles.publicLookup().findStatic(Class.forName("PixelBuffer"), "convert",
+                    MethodType.methodType(BufferedImage.class, BufferedImage.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App() {
+    }
+
+    /**
+     * A 4:3 image of about megapixels MP: smooth gradients, a few hard-edged
+     * shapes and seeded noise, identical on every run.
+     */
+    static BufferedImage synthetic(double megapixels, int type) throws Throwable {
+        int w = Math.max(8, (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3)));
+        int h = Math.max(8, (int) Math.round(w * 3 / 4.0));
+        BufferedImage argb = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] px = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                int noise = (int) (seed & 31) - 16;
+                boolean inside = ((x * 8 / w) + (y * 6 / h)) % 3 == 0;
+                int r = clamp(255 * x / w + noise), g = clamp(255 * y / h + noise), b = clamp((inside ? 220 : 40) + noise);
+                int a = 255 - (x * 64 / w);
+                px[i] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return type == BufferedImage.TYPE_INT_ARGB ? argb : (BufferedImage) CONVERT.invokeExact(argb, type);
+    }
+
+    /** Raw pixel bytes of img, standing in for an encoded image of the same size. */
+    static byte[] raw(BufferedImage img) {
+        DataBuffer db = img.getRaster().getDataBuffer();
+        if (db instanceof DataBufferByte) return ((DataBufferByte) db).getData().clone();
+        int[] ints = ((DataBufferInt) db).getData();
+        byte[] b = new byte[ints.length * 4];
+        for (int i = 0, j = 0; i < ints.length; i++, j += 4) {
+            int v = ints[i];
+            b[j] = (byte) (v >>> 24);
+            b[j + 1] = (byte) (v >>> 16);
+            b[j + 2] = (byte) (v >>> 8);
+            b[j + 3] = (byte) v;
+        }
+        return b;
+    }
+
+    /**
+     * The static method className.name(BufferedImage, extra types...) with the
+     * extra arguments bound, as (BufferedImage)Object.
+     *
+     * @param extra Alternating parameter type and value
+     */
+    private static MethodHandle image(String className, String name, Object... extra) {
+        Class<?>[] params = new Class<?>[1 + extra.length / 2];
+        Object[] values = new Object[extra.length / 2];
+        params[0] = BufferedImage.class;
+        for (int i = 0; i < values.length; i++) {
+            params[i + 1] = (Class<?>) extra[2 * i];
+            values[i] = extra[2 * i + 1];
+        }
+        try {
+            Class<?> c = Class.forName(className);
+            MethodHandle h = null;
+            for (Method m : c.getMethods()) {
+                if (m.getName().equals(name) && Arrays.equals(m.getParameterTypes(), params)) {
+                    h = MethodHandles.publicLookup().unreflect(m);
+                }
+            }
+            if (h == null) throw new NoSuchMethodException(className + "." + name);
+            return MethodHandles.insertArguments(h, 1, values)
+                    .asType(MethodType.methodType(Object.class, BufferedImage.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // HistogramProcessor.equalize(img, mode, null)
+    private static MethodHandle equalize(String mode) {
+        try {
+            Class<?> modes = Class.forName("HistogramProcessor$Mode");
+            Class<?> histogram = Class.forName("HistogramProcessor$Histogram");
+            MethodHandle h = MethodHandles.publicLookup().findStatic(Class.forName("HistogramProcessor"), "equalize",
+                    MethodType.methodType(BufferedImage.class, BufferedImage.class, modes, histogram));
+            return MethodHandles.insertArguments(h, 1, enumConstant(modes, mode), null)
+                    .asType(MethodType.methodType(Object.class, BufferedImage.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Object enumConstant(Class<?> type, String name) {
+        for (Object o : type.getEnumConstants()) {
+            if (((Enum<?>) o).name().equals(name)) return o;
+        }
+        throw new IllegalArgumentException(type.getName() + "." + name);
+    }
+
+    private static MethodHandle bind(MethodHandle h, Object receiver) {
+        return h.bindTo(receiver).asType(MethodType.methodType(Object.class, byte[].class));
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CodecBenchmark
+ * ----------------------------
+ * Time per call of the encoders:
+ * - JPEG at quality 0.8, encoded in memory so disk speed stays out of it
+ * - AES-GCM over the image's raw pixel bytes, which stand in for an encoded
+ *   file of the same size; the plaintext and ciphertext are prepared once per
+ *   trial
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx8g"})
+public class CodecBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Payload {
+        byte[] plain, encrypted;
+
+        @Setup(Level.Trial)
+        public void setUp(ImageState s) throws Throwable {
+            plain = App.raw(s.image);
+            encrypted = (byte[]) (Object) App.AES_ENCRYPT.invokeExact(plain);
+        }
+    }
+
+    @Benchmark
+    public void compressJPG(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.ENCODE_JPG.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void aesEncrypt(Payload p, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.AES_ENCRYPT.invokeExact(p.plain));
+    }
+
+    @Benchmark
+    public void aesDecrypt(Payload p, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.AES_DECRYPT.invokeExact(p.encrypted));
+    }
+}
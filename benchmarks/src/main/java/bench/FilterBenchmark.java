@@ -0,0 +1,40 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FilterBenchmark
+ * ----------------------------
+ * Time per call of the per-pixel filters (sharpen, blur, enhance).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx8g"})
+public class FilterBenchmark {
+
+    @Benchmark
+    public void sharpen(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.SHARPEN.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void blur(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.BLUR.invokeExact(s.image));
+    }
+
+    @Benchmark
+    public void enhance(ImageState s, Blackhole bh) throws Throwable {
+        bh.consume((Object) App.ENHANCE.invokeExact(s.image));
+    }
+}
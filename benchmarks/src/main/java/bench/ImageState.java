@@ -0,0 +1,44 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * ImageState
+ * ----------------------------
+ * The input image of a benchmark, one per size and pixel layout:
+ * - synthetic and seeded, so runs on different commits measure the same pixels
+ * - built once per trial (fork), outside the measurement
+ * - narrow the grid with e.g. -p megapixels=1,12 -p type=INT_RGB
+ */
+@State(Scope.Benchmark)
+public class ImageState {
+
+    @Param({"0.25", "1", "4", "12", "48"})
+    public double megapixels;
+
+    @Param({"INT_RGB", "INT_ARGB", "3BYTE_BGR", "BYTE_GRAY"})
+    public String type;
+
+    public BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        image = App.synthetic(megapixels, imageType(type));
+    }
+
+    static int imageType(String name) {
+        switch (name) {
+            case "INT_RGB":   return BufferedImage.TYPE_INT_RGB;
+            case "INT_ARGB":  return BufferedImage.TYPE_INT_ARGB;
+            case "3BYTE_BGR": return BufferedImage.TYPE_3BYTE_BGR;
+            case "BYTE_GRAY": return BufferedImage.TYPE_BYTE_GRAY;
+            default: throw new IllegalArgumentException("Unknown type: " + name);
+        }
+    }
+}